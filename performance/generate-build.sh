@@ -0,0 +1,68 @@
+#!/bin/sh
+# Generates a build with the given number of Spring Boot subprojects that apply this plugin,
+# for the gradle-profiler scenarios in performance.scenarios.
+#
+# Usage: generate-build.sh <subprojects> <directory>
+set -e
+
+count=$1
+dir=$2
+if [ -z "$count" ] || [ -z "$dir" ]; then
+  echo "Usage: $0 <subprojects> <directory>" >&2
+  exit 1
+fi
+plugin_dir=$(cd "$(dirname "$0")/.." && pwd)
+
+rm -rf "$dir"
+mkdir -p "$dir"
+
+cat > "$dir/settings.gradle" <<SETTINGS
+pluginManagement {
+    includeBuild '$plugin_dir'
+}
+plugins {
+    id 'org.springframework.boot' version '3.5.7' apply false
+}
+rootProject.name = 'performance-$count'
+SETTINGS
+
+cat > "$dir/build.gradle" <<BUILD
+subprojects {
+    apply plugin: 'java'
+    apply plugin: 'org.springframework.boot'
+    apply plugin: 'io.github.itzg.simple-boot-image'
+
+    repositories {
+        mavenCentral()
+    }
+    springBoot {
+        mainClass = 'app.Application'
+    }
+    simpleBootImage {
+        imageRepo = 'registry.invalid/performance'
+    }
+}
+BUILD
+
+cat > "$dir/gradle.properties" <<PROPERTIES
+org.gradle.parallel=true
+org.gradle.caching=true
+org.gradle.configuration-cache=true
+PROPERTIES
+
+i=1
+while [ "$i" -le "$count" ]; do
+  project="service-$i"
+  echo "include '$project'" >> "$dir/settings.gradle"
+  mkdir -p "$dir/$project/src/main/java/app"
+  cat > "$dir/$project/src/main/java/app/Application.java" <<JAVA
+package app;
+
+public class Application {
+    public static void main(String[] args) {
+        System.out.println("service $i");
+    }
+}
+JAVA
+  i=$((i + 1))
+done
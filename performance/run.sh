@@ -0,0 +1,20 @@
+#!/bin/sh
+# Runs the gradle-profiler scenarios against generated builds with 1, 50, and 200 subprojects,
+# or those given by SUBPROJECTS. Results of each build are written to
+# build/performance/results/<commit>/<subprojects> so that they can be compared between commits.
+set -e
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+commit=$(git -C "$root" rev-parse --short HEAD)
+gradle_version=$(sed -n 's/.*gradle-\(.*\)-bin\.zip/\1/p' "$root/gradle/wrapper/gradle-wrapper.properties")
+
+for count in ${SUBPROJECTS:-1 50 200}; do
+  build="$root/build/performance/builds/$count"
+  "$root/performance/generate-build.sh" "$count" "$build"
+
+  PATH="$root/performance/fake-docker:$PATH" gradle-profiler --benchmark \
+    --gradle-version "$gradle_version" \
+    --project-dir "$build" \
+    --scenario-file "$root/performance/performance.scenarios" \
+    --output-dir "$root/build/performance/results/$commit/$count"
+done
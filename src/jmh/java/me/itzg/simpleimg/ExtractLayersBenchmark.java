@@ -0,0 +1,82 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures in-process layer extraction of a boot jar, both into an empty directory and the
+ * incremental pass over a previous extraction of the same jar.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExtractLayersBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class BootJar {
+
+        @Param({"50", "300", "1024"})
+        int jarSizeMb;
+
+        Path workDir;
+        Path jarFile;
+
+        @Setup(Level.Trial)
+        public void create() throws IOException {
+            workDir = Files.createTempDirectory("extract-benchmark");
+            jarFile = SyntheticBootJar.write(workDir.resolve("application.jar"), jarSizeMb);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            ManagedBuildCache.deleteRecursively(workDir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyLayers {
+
+        Path directory;
+
+        @Setup(Level.Invocation)
+        public void clean(BootJar bootJar) throws IOException {
+            directory = bootJar.workDir.resolve("empty-layers");
+            ManagedBuildCache.deleteRecursively(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ExtractedLayers {
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void extract(BootJar bootJar) throws IOException, BootLayersExtractor.UnsupportedJarException {
+            directory = bootJar.workDir.resolve("extracted-layers");
+            new BootLayersExtractor(bootJar.jarFile).extract(directory, false);
+        }
+    }
+
+    @Benchmark
+    public BootLayersExtractor.Result extract(BootJar bootJar, EmptyLayers layers)
+        throws IOException, BootLayersExtractor.UnsupportedJarException {
+        return new BootLayersExtractor(bootJar.jarFile).extract(layers.directory, false);
+    }
+
+    @Benchmark
+    public BootLayersExtractor.Result extractUnchanged(BootJar bootJar, ExtractedLayers layers)
+        throws IOException, BootLayersExtractor.UnsupportedJarException {
+        return new BootLayersExtractor(bootJar.jarFile).extract(layers.directory, true);
+    }
+}
@@ -0,0 +1,90 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures what follows Dockerfile generation: parsing the generated Dockerfile and writing the
+ * files it copies, either as the build context streamed to {@code docker build} or as the
+ * compressed layers of {@code assembleSimpleBootImage}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageContextBenchmark {
+
+    @Param({"50", "300", "1024"})
+    int jarSizeMb;
+
+    private Path workDir;
+    private Path contextDir;
+    private Path ociLayoutDir;
+    private List<String> dockerfile;
+
+    @Setup(Level.Trial)
+    public void extractLayers() throws IOException, BootLayersExtractor.UnsupportedJarException {
+        workDir = Files.createTempDirectory("context-benchmark");
+        contextDir = workDir.resolve("simpleBootImage");
+        ociLayoutDir = workDir.resolve("oci");
+        final Path jarFile = SyntheticBootJar.write(workDir.resolve("application.jar"), jarSizeMb);
+        new BootLayersExtractor(jarFile).extract(contextDir.resolve("layers"), false);
+
+        // as generated by generateLayeredDockerfile
+        dockerfile = new ArrayList<>(List.of(
+            "ARG BASE_IMG=eclipse-temurin:17",
+            "FROM ${BASE_IMG}",
+            "WORKDIR /application"
+        ));
+        for (final String layer : DependencyLayer.layerOrder(List.of())) {
+            dockerfile.add("COPY layers/" + layer + "/ ./");
+        }
+        dockerfile.add("ENTRYPOINT [\"java\", \"org.springframework.boot.loader.launch.JarLauncher\"]");
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanOciLayout() throws IOException {
+        ManagedBuildCache.deleteRecursively(ociLayoutDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWorkDir() throws IOException {
+        ManagedBuildCache.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public void streamBuildContext() throws IOException {
+        final DockerfileSpec spec = DockerfileSpec.parse(dockerfile, Map.of());
+        try (TarWriter tarWriter = new TarWriter(OutputStream.nullOutputStream())) {
+            for (final DockerfileSpec.Copy copy : spec.getCopies()) {
+                AssembleImageTask.addCopy(tarWriter, contextDir, copy);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<OciLayout.Layer> compressLayers() throws IOException {
+        final DockerfileSpec spec = DockerfileSpec.parse(dockerfile, Map.of());
+        final OciLayout layout = new OciLayout(ociLayoutDir);
+        final List<OciLayout.Layer> layers = new ArrayList<>();
+        for (final DockerfileSpec.Copy copy : spec.getCopies()) {
+            layers.add(layout.writeLayer(tarWriter -> AssembleImageTask.addCopy(tarWriter, contextDir, copy)));
+        }
+        return layers;
+    }
+}
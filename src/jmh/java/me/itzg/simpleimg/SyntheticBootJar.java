@@ -0,0 +1,118 @@
+package me.itzg.simpleimg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a layered Spring Boot jar of roughly the requested size, where most of the size is in
+ * dependency jars as in real applications. Content is pseudo-random from a fixed seed, so it is
+ * as incompressible as already compressed jars and identical across runs.
+ */
+class SyntheticBootJar {
+
+    static final int DEPENDENCY_SIZE = 5 * 1024 * 1024;
+    static final int APPLICATION_CLASSES = 500;
+    static final int CLASS_SIZE = 2 * 1024;
+
+    private final Random random = new Random(42);
+
+    static Path write(Path jarFile, int sizeMb) throws IOException {
+        new SyntheticBootJar().writeJar(jarFile, (long) sizeMb * 1024 * 1024);
+        return jarFile;
+    }
+
+    private void writeJar(Path jarFile, long size) throws IOException {
+        final int dependencyCount = (int) Math.max(1, size / DEPENDENCY_SIZE);
+        final List<String> dependencies = new ArrayList<>();
+        for (int i = 0; i < dependencyCount - 1; i++) {
+            dependencies.add("BOOT-INF/lib/dependency-" + i + "-1.0.0.jar");
+        }
+        final String snapshotDependency = "BOOT-INF/lib/snapshot-1.0.0-SNAPSHOT.jar";
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jarFile))) {
+            addText(out, "META-INF/MANIFEST.MF", """
+                Manifest-Version: 1.0
+                Main-Class: org.springframework.boot.loader.launch.JarLauncher
+                Start-Class: com.example.Application
+                Spring-Boot-Classes: BOOT-INF/classes/
+                Spring-Boot-Lib: BOOT-INF/lib/
+                Spring-Boot-Layers-Index: BOOT-INF/layers.idx
+                """);
+            addText(out, BootLayersExtractor.LAYERS_INDEX, layersIndex(dependencies, snapshotDependency));
+
+            for (int i = 0; i < 20; i++) {
+                addDeflated(out, "org/springframework/boot/loader/Loader" + i + ".class", randomBytes(CLASS_SIZE));
+            }
+            for (final String dependency : dependencies) {
+                addStored(out, dependency, nestedJar(DEPENDENCY_SIZE));
+            }
+            addStored(out, snapshotDependency, nestedJar(DEPENDENCY_SIZE / 5));
+            for (int i = 0; i < APPLICATION_CLASSES; i++) {
+                addDeflated(out, "BOOT-INF/classes/com/example/Class" + i + ".class", randomBytes(CLASS_SIZE));
+            }
+        }
+    }
+
+    private static String layersIndex(List<String> dependencies, String snapshotDependency) {
+        final StringBuilder index = new StringBuilder("- \"dependencies\":\n");
+        dependencies.forEach(dependency -> index.append("  - \"").append(dependency).append("\"\n"));
+        index.append("- \"spring-boot-loader\":\n  - \"org/\"\n");
+        index.append("- \"snapshot-dependencies\":\n  - \"").append(snapshotDependency).append("\"\n");
+        index.append("- \"application\":\n  - \"BOOT-INF/classes/\"\n  - \"BOOT-INF/layers.idx\"\n  - \"META-INF/\"\n");
+        return index.toString();
+    }
+
+    private byte[] nestedJar(int size) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 1024);
+        try (ZipOutputStream nested = new ZipOutputStream(bytes)) {
+            nested.setLevel(0);
+            for (int written = 0, i = 0; written < size; written += CLASS_SIZE * 16, i++) {
+                nested.putNextEntry(new ZipEntry("com/example/dependency/Class" + i + ".class"));
+                nested.write(randomBytes(CLASS_SIZE * 16));
+                nested.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] randomBytes(int size) {
+        final byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void addText(ZipOutputStream out, String name, String content) throws IOException {
+        addDeflated(out, name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void addDeflated(ZipOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    /**
+     * Nested jars are stored uncompressed, as Spring Boot requires
+     */
+    private static void addStored(ZipOutputStream out, String name, byte[] content) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+}
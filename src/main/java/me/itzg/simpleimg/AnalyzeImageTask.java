@@ -0,0 +1,250 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Reports the size and composition of the image content, from either the extracted layers or the
+ * staged jar, and how much of each layer changed since the previous analysis. The build fails when
+ * a size budget is exceeded.
+ */
+@DisableCachingByDefault(because = "Churn is relative to the previous analysis of this project")
+public abstract class AnalyzeImageTask extends DefaultTask {
+
+    private static final long MB = 1024 * 1024;
+
+    @Optional
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    abstract DirectoryProperty getLayersDirectory();
+
+    @Optional
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    abstract RegularFileProperty getStagedJar();
+
+    /**
+     * The image ID file of a previous image build, if any, used to include the size of the built image
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    abstract ConfigurableFileCollection getImageIdFile();
+
+    @Input
+    abstract MapProperty<String, Integer> getLayerMaxSizeMb();
+
+    @Optional
+    @Input
+    abstract Property<Integer> getTotalMaxSizeMb();
+
+    @Optional
+    @Input
+    abstract Property<Integer> getImageMaxSizeMb();
+
+    @OutputFile
+    abstract RegularFileProperty getReportFile();
+
+    /**
+     * Retains the size and checksum of each file for the churn of the next analysis
+     */
+    @OutputFile
+    abstract RegularFileProperty getStateFile();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    void apply(SharedProperties sharedProperties) {
+        getLayerMaxSizeMb().set(sharedProperties.getSizeBudgets().getLayerMaxSizeMb());
+        getTotalMaxSizeMb().set(sharedProperties.getSizeBudgets().getTotalMaxSizeMb());
+        getImageMaxSizeMb().set(sharedProperties.getSizeBudgets().getImageMaxSizeMb());
+    }
+
+    @TaskAction
+    void analyze() throws IOException {
+        final ImageAnalyzer analyzer = new ImageAnalyzer();
+        if (getLayersDirectory().isPresent()) {
+            analyzer.addLayers(getLayersDirectory().get().getAsFile().toPath());
+        }
+        else if (getStagedJar().isPresent()) {
+            analyzer.addFatJar(getStagedJar().get().getAsFile().toPath());
+        }
+        else {
+            throw new IllegalArgumentException("Either the layers directory or staged jar is required");
+        }
+
+        final Path stateFile = getStateFile().get().getAsFile().toPath();
+        final Map<String, Map<String, String>> previousState = readState(stateFile);
+        final Map<String, Map<String, Long>> churn = previousState != null ? analyzer.churn(previousState) : null;
+        final Long imageSize = builtImageSize();
+
+        final Map<String, Long> layerSizes = analyzer.layerSizes();
+        final List<String> violations = new ArrayList<>();
+        getLayerMaxSizeMb().get().forEach((layer, maxSizeMb) -> {
+            final long size = layerSizes.getOrDefault(layer, 0L);
+            if (size > maxSizeMb * MB) {
+                violations.add(String.format("layer %s is %s, which exceeds its budget of %d MB", layer, formatSize(size), maxSizeMb));
+            }
+        });
+        if (getTotalMaxSizeMb().isPresent() && analyzer.totalSize() > getTotalMaxSizeMb().get() * MB) {
+            violations.add(String.format("layers total %s, which exceeds the budget of %d MB",
+                formatSize(analyzer.totalSize()), getTotalMaxSizeMb().get()
+            ));
+        }
+        if (getImageMaxSizeMb().isPresent() && imageSize != null && imageSize > getImageMaxSizeMb().get() * MB) {
+            violations.add(String.format("image is %s, which exceeds the budget of %d MB",
+                formatSize(imageSize), getImageMaxSizeMb().get()
+            ));
+        }
+
+        final Path reportFile = getReportFile().get().getAsFile().toPath();
+        Files.createDirectories(reportFile.getParent());
+        Files.writeString(reportFile, JsonOutput.prettyPrint(JsonOutput.toJson(
+            report(analyzer, layerSizes, churn, imageSize, violations)
+        )));
+        Files.writeString(stateFile, JsonOutput.toJson(analyzer.state()));
+
+        logSummary(analyzer, layerSizes, churn, imageSize);
+
+        if (!violations.isEmpty()) {
+            throw new GradleException("Image size budgets exceeded: " + String.join("; ", violations)
+                + ". See " + reportFile);
+        }
+    }
+
+    private Map<String, Object> report(ImageAnalyzer analyzer, Map<String, Long> layerSizes,
+        Map<String, Map<String, Long>> churn, Long imageSize, List<String> violations
+    ) {
+        final List<Map<String, Object>> layers = new ArrayList<>();
+        layerSizes.forEach((layer, size) -> {
+            final Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", layer);
+            entry.put("size", size);
+            entry.put("files", analyzer.getFiles().stream().filter(file -> file.layer().equals(layer)).count());
+            if (churn != null) {
+                entry.put("churn", churn.get(layer));
+            }
+            layers.add(entry);
+        });
+
+        final List<Map<String, Object>> largestJars = new ArrayList<>();
+        for (final ImageAnalyzer.FileEntry jar : analyzer.largestJars()) {
+            final Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("layer", jar.layer());
+            entry.put("path", jar.path());
+            entry.put("size", jar.size());
+            largestJars.add(entry);
+        }
+
+        final Map<String, Set<String>> duplicateClasses = analyzer.duplicateClasses();
+        final Map<String, Object> duplicateClassesReport = new LinkedHashMap<>();
+        duplicateClassesReport.put("count", duplicateClasses.size());
+        duplicateClassesReport.put("examples", duplicateClasses.entrySet().stream()
+            .limit(ImageAnalyzer.DUPLICATE_CLASS_EXAMPLES)
+            .map(entry -> Map.of("class", entry.getKey(), "locations", List.copyOf(entry.getValue())))
+            .toList()
+        );
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("totalSize", analyzer.totalSize());
+        report.put("imageSize", imageSize);
+        report.put("layers", layers);
+        report.put("largestJars", largestJars);
+        report.put("duplicateJars", analyzer.duplicateJars());
+        report.put("duplicateClasses", duplicateClassesReport);
+        report.put("budgetViolations", violations);
+        return report;
+    }
+
+    private void logSummary(ImageAnalyzer analyzer, Map<String, Long> layerSizes,
+        Map<String, Map<String, Long>> churn, Long imageSize
+    ) {
+        layerSizes.forEach((layer, size) -> {
+            if (churn != null && churn.get(layer).get("changedBytes") > 0) {
+                getLogger().lifecycle("Layer {}: {}, {} changed", layer, formatSize(size),
+                    formatSize(churn.get(layer).get("changedBytes"))
+                );
+            }
+            else {
+                getLogger().lifecycle("Layer {}: {}", layer, formatSize(size));
+            }
+        });
+        getLogger().lifecycle("Total: {}{}", formatSize(analyzer.totalSize()),
+            imageSize != null ? ", image including base: " + formatSize(imageSize) : ""
+        );
+        analyzer.duplicateJars().forEach((artifact, jars) ->
+            getLogger().warn("Duplicate jars for {}: {}", artifact, jars)
+        );
+        final int duplicateClasses = analyzer.duplicateClasses().size();
+        if (duplicateClasses > 0) {
+            getLogger().warn("{} classes are present in more than one location", duplicateClasses);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, String>> readState(Path stateFile) {
+        if (!Files.isRegularFile(stateFile)) {
+            return null;
+        }
+        try {
+            return (Map<String, Map<String, String>>) new JsonSlurper().parse(stateFile.toFile());
+        } catch (RuntimeException e) {
+            getLogger().debug("Ignoring unreadable analysis state {}", stateFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the size of the built image, if it exists in the local Docker daemon
+     */
+    private Long builtImageSize() {
+        final File imageIdFile = getImageIdFile().getFiles().stream()
+            .filter(File::isFile)
+            .findFirst()
+            .orElse(null);
+        if (imageIdFile == null) {
+            return null;
+        }
+        try {
+            final String imageId = Files.readString(imageIdFile.toPath()).trim();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final ExecResult result = getExecOperations().exec(spec -> {
+                spec.commandLine("docker", "image", "inspect", "--format", "{{.Size}}", imageId);
+                spec.setStandardOutput(out);
+                spec.setErrorOutput(OutputStream.nullOutputStream());
+                spec.setIgnoreExitValue(true);
+            });
+            return result.getExitValue() == 0 ? Long.parseLong(out.toString(StandardCharsets.UTF_8).trim()) : null;
+        } catch (IOException | RuntimeException e) {
+            getLogger().debug("Unable to determine size of built image", e);
+            return null;
+        }
+    }
+
+    static String formatSize(long size) {
+        return size >= MB ? String.format("%.1f MB", (double) size / MB) : String.format("%.1f KB", size / 1024.0);
+    }
+}
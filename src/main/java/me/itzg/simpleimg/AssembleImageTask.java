@@ -0,0 +1,404 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonSlurper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.inject.Inject;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.DisableCachingByDefault;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * Assembles the image without a Docker daemon by applying the generated Dockerfile's
+ * {@code COPY} layers, entrypoint, exposed port, and labels on top of the base image pulled
+ * directly from its registry. The result is written as an OCI image layout and, optionally,
+ * as a tarball that can be loaded with {@code docker load}.
+ * <p>
+ * Since the application layers only contain files, they are created once and combined with the
+ * base image of each platform, so multi-platform images need neither emulation nor a builder.
+ */
+@DisableCachingByDefault(because = "The base image is resolved from its registry and the output mostly consists of its layers")
+public abstract class AssembleImageTask extends ImageBuildingTask {
+
+    private static final String CREATED = Instant.ofEpochSecond(TarWriter.FIXED_MTIME_SECONDS).toString();
+    static final String BASE_NAME_ANNOTATION = "org.opencontainers.image.base.name";
+
+    private static final Map<String, String> DOCKER_TO_OCI_MEDIA_TYPES = Map.of(
+        "application/vnd.docker.image.rootfs.diff.tar.gzip", OciLayout.OCI_LAYER_GZIP,
+        "application/vnd.docker.container.image.v1+json", OciLayout.OCI_CONFIG
+    );
+
+    @Input
+    abstract Property<Boolean> getPullForBuild();
+
+    /**
+     * When more than one, the image is an index of an image per platform, which all share the same
+     * application layers. When not set, the platform of the current machine is used.
+     */
+    @Optional
+    @Input
+    abstract ListProperty<String> getPlatforms();
+
+    /**
+     * Where compressed layer blobs are cached across builds, typically within the Gradle user home
+     */
+    @Internal
+    abstract DirectoryProperty getLayerCacheDirectory();
+
+    /**
+     * The maximum total size of cached layer blobs, where zero disables the cache
+     */
+    @Internal
+    abstract Property<Integer> getLayerCacheMaxSizeMb();
+
+    @OutputDirectory
+    abstract DirectoryProperty getOciLayoutDirectory();
+
+    @Optional
+    @OutputFile
+    abstract RegularFileProperty getImageTarball();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    public AssembleImageTask() {
+        // same as docker build, a mutable base image tag is only re-resolved when pulling is requested
+        getOutputs().upToDateWhen(task -> !getPullForBuild().get() || isBaseImageLocked());
+    }
+
+    @Override
+    void apply(SharedProperties sharedProperties) {
+        getPullForBuild().set(sharedProperties.getPullForBuild());
+        getPlatforms().set(sharedProperties.getPlatforms());
+        getLayerCacheMaxSizeMb().set(sharedProperties.getLayerCacheMaxSizeMb());
+
+        super.apply(sharedProperties);
+    }
+
+    /**
+     * The image of one platform
+     *
+     * @param layers the layer descriptors of the base image followed by the application layers
+     */
+    private record PlatformImage(ImagePlatform platform, OciLayout.Descriptor manifest,
+                                 OciLayout.Descriptor config, List<Map<String, Object>> layers) {
+    }
+
+    @TaskAction
+    void assemble() throws IOException {
+        final long started = System.nanoTime();
+        final DockerfileSpec spec = DockerfileSpec.parse(getDockerfile().get().getAsFile().toPath(), buildArgs());
+        if (!spec.getUnsupported().isEmpty()) {
+            throw new IllegalArgumentException("Dockerfile instructions require docker build: " + spec.getUnsupported());
+        }
+
+        final int compressionLevel = LayerCompression.gzipLevel(
+            getLayerCompression().get(), getLayerCompressionLevel().getOrNull()
+        );
+        final List<ImagePlatform> platforms = resolvePlatforms();
+        final OciLayout layout = new OciLayout(getOciLayoutDirectory().get().getAsFile().toPath());
+        final Set<String> referencedBlobs = new HashSet<>();
+
+        getLogger().info("Assembling {} from base image {} for {}", calculateFullImageName(), spec.getBaseImage(), platforms);
+
+        // Application layers
+
+        // the copied files are the same for every platform, so each layer is only created once. Each layer
+        // is packaged concurrently, while base images are pulled, and its compression uses all cores.
+        final WorkQueue workQueue = getWorkerExecutor().noIsolation();
+        final List<Path> resultFiles = new ArrayList<>();
+        for (final DockerfileSpec.Copy copy : spec.getCopies()) {
+            final Path resultFile = getTemporaryDir().toPath().resolve("layer-" + resultFiles.size() + ".properties");
+            resultFiles.add(resultFile);
+            workQueue.submit(CreateLayerWorkAction.class, parameters -> {
+                parameters.getOciLayoutDirectory().set(getOciLayoutDirectory());
+                parameters.getContextDirectory().set(getBootImageDirectory());
+                parameters.getSources().set(copy.sources());
+                parameters.getDestination().set(copy.destination());
+                parameters.getLayerCacheDirectory().set(getLayerCacheDirectory());
+                parameters.getLayerCacheMaxSizeMb().set(getLayerCacheMaxSizeMb());
+                parameters.getCompressionLevel().set(compressionLevel);
+                parameters.getResultFile().set(resultFile.toFile());
+            });
+        }
+
+        // Base images
+
+        final ImageReference baseImage = ImageReference.parse(spec.getBaseImage());
+        final RegistryClient registryClient = new RegistryClient(baseImage.registry(), getExecOperations());
+        final Map<ImagePlatform, RegistryClient.Manifest> baseManifests = new LinkedHashMap<>();
+        for (final ImagePlatform platform : platforms) {
+            final RegistryClient.Manifest baseManifest = resolveManifest(registryClient, baseImage, platform);
+            final Map<String, Object> baseManifestContent = baseManifest.parse();
+            ensureBlob(registryClient, baseImage, layout, (String) castMap(baseManifestContent.get("config")).get("digest"));
+            for (final Object layer : (List<?>) baseManifestContent.get("layers")) {
+                ensureBlob(registryClient, baseImage, layout, (String) castMap(layer).get("digest"));
+            }
+            baseManifests.put(platform, baseManifest);
+        }
+
+        workQueue.await();
+
+        final List<Map<String, Object>> applicationLayers = new ArrayList<>();
+        final List<String> diffIds = new ArrayList<>();
+        final List<Map<String, Object>> history = new ArrayList<>();
+        for (int i = 0; i < resultFiles.size(); i++) {
+            final DockerfileSpec.Copy copy = spec.getCopies().get(i);
+            final OciLayout.Layer layer = CreateLayerWorkAction.readResult(resultFiles.get(i));
+            getLogger().debug("Created layer {} for {}", layer.descriptor().digest(), copy.instruction());
+
+            applicationLayers.add(layer.descriptor().toMap());
+            diffIds.add(layer.diffId());
+            history.add(new TreeMap<>(Map.of("created", CREATED, "created_by", copy.instruction())));
+        }
+
+        // Config and manifest of each platform
+
+        final List<PlatformImage> images = new ArrayList<>();
+        for (final Map.Entry<ImagePlatform, RegistryClient.Manifest> baseManifest : baseManifests.entrySet()) {
+            final PlatformImage image = createImage(layout, spec, baseManifest.getKey(), baseManifest.getValue(),
+                applicationLayers, diffIds, history
+            );
+            images.add(image);
+            referencedBlobs.add(image.manifest().digest());
+            referencedBlobs.add(image.config().digest());
+            image.layers().forEach(layer -> referencedBlobs.add((String) layer.get("digest")));
+            // retained so that the next assembly doesn't pull it again
+            referencedBlobs.add((String) castMap(baseManifest.getValue().parse().get("config")).get("digest"));
+        }
+
+        // Index
+
+        final OciLayout.Descriptor imageDescriptor = images.size() == 1 ? images.get(0).manifest()
+            : writeImageIndex(layout, spec, images);
+        referencedBlobs.add(imageDescriptor.digest());
+
+        final List<String> imageTags = expandImageTags().stream().sorted().toList();
+        final List<Map<String, Object>> indexManifests = new ArrayList<>();
+        for (final String imageTag : imageTags) {
+            final Map<String, Object> entry = imageDescriptor.toMap();
+            if (images.size() == 1) {
+                entry.put("platform", images.get(0).platform().toMap());
+            }
+            entry.put("annotations", new TreeMap<>(Map.of(
+                OciLayout.REF_NAME_ANNOTATION, imageTag.substring(imageTag.lastIndexOf(':') + 1),
+                "io.containerd.image.name", imageTag
+            )));
+            indexManifests.add(entry);
+        }
+        layout.writeIndex(indexManifests);
+        layout.retainBlobs(referencedBlobs);
+
+        getLogger().info("Assembled image {} {} into {}", imageDescriptor.mediaType(), imageDescriptor.digest(), layout.getRoot());
+
+        if (getImageTarball().isPresent()) {
+            // Docker's manifest.json describes a single platform, so the one docker would run is preferred,
+            // whereas an image store that supports OCI image indexes loads all of them
+            final ImagePlatform host = ImagePlatform.host();
+            final PlatformImage loaded = images.stream()
+                .filter(image -> image.platform().architecture().equals(host.architecture()))
+                .findFirst()
+                .orElse(images.get(0));
+            final Map<String, Object> dockerManifest = new LinkedHashMap<>();
+            dockerManifest.put("Config", blobEntryName(loaded.config().digest()));
+            dockerManifest.put("RepoTags", imageTags);
+            dockerManifest.put("Layers", loaded.layers().stream()
+                .map(layer -> blobEntryName((String) layer.get("digest")))
+                .toList());
+            layout.writeTarball(getImageTarball().get().getAsFile().toPath(), List.of(dockerManifest));
+        }
+
+        BuildTimingService.record(getTimingService(), this, "assemble", started);
+    }
+
+    private PlatformImage createImage(OciLayout layout, DockerfileSpec spec, ImagePlatform platform,
+        RegistryClient.Manifest baseManifest, List<Map<String, Object>> applicationLayers,
+        List<String> diffIds, List<Map<String, Object>> history
+    ) throws IOException {
+        final Map<String, Object> baseManifestContent = baseManifest.parse();
+        final List<Map<String, Object>> layers = new ArrayList<>();
+        for (final Object layerObj : (List<?>) baseManifestContent.get("layers")) {
+            final Map<String, Object> layer = new LinkedHashMap<>(castMap(layerObj));
+            layer.computeIfPresent("mediaType", (key, mediaType) -> DOCKER_TO_OCI_MEDIA_TYPES.getOrDefault(mediaType, (String) mediaType));
+            layers.add(layer);
+        }
+        layers.addAll(applicationLayers);
+
+        // JSON content needs a stable key order, so that unchanged images have unchanged digests
+        final String baseConfigDigest = (String) castMap(baseManifestContent.get("config")).get("digest");
+        final Map<String, Object> config = createConfig(
+            castMap(new JsonSlurper().parse(layout.blobPath(baseConfigDigest).toFile())),
+            spec, diffIds, history
+        );
+        final OciLayout.Descriptor configDescriptor = layout.writeJsonBlob(OciLayout.OCI_CONFIG, config);
+
+        final Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("schemaVersion", 2);
+        manifest.put("mediaType", RegistryClient.OCI_MANIFEST);
+        manifest.put("config", configDescriptor.toMap());
+        manifest.put("layers", layers);
+        manifest.put("annotations", new TreeMap<>(Map.of(
+            BASE_NAME_ANNOTATION, spec.getBaseImage(),
+            "org.opencontainers.image.base.digest", baseManifest.digest()
+        )));
+        final OciLayout.Descriptor manifestDescriptor = layout.writeJsonBlob(RegistryClient.OCI_MANIFEST, manifest);
+        getLogger().debug("Assembled manifest {} for {}", manifestDescriptor.digest(), platform);
+
+        return new PlatformImage(platform, manifestDescriptor, configDescriptor, layers);
+    }
+
+    private static OciLayout.Descriptor writeImageIndex(OciLayout layout, DockerfileSpec spec, List<PlatformImage> images)
+        throws IOException {
+        final List<Map<String, Object>> manifests = new ArrayList<>();
+        for (final PlatformImage image : images) {
+            final Map<String, Object> entry = image.manifest().toMap();
+            entry.put("platform", image.platform().toMap());
+            manifests.add(entry);
+        }
+        final Map<String, Object> index = new LinkedHashMap<>();
+        index.put("schemaVersion", 2);
+        index.put("mediaType", RegistryClient.OCI_INDEX);
+        index.put("manifests", manifests);
+        index.put("annotations", Map.of(BASE_NAME_ANNOTATION, spec.getBaseImage()));
+        return layout.writeJsonBlob(RegistryClient.OCI_INDEX, index);
+    }
+
+    private List<ImagePlatform> resolvePlatforms() {
+        final List<String> platforms = getPlatforms().getOrElse(List.of());
+        return platforms.isEmpty() ? List.of(ImagePlatform.host())
+            : platforms.stream().map(ImagePlatform::parse).distinct().toList();
+    }
+
+    static RegistryClient.Manifest resolveManifest(RegistryClient registryClient, ImageReference image,
+        ImagePlatform platform
+    ) throws IOException {
+        final RegistryClient.Manifest manifest = registryClient.getManifest(image.repository(), image.manifestReference());
+        if (!manifest.isIndex()) {
+            return manifest;
+        }
+
+        for (final Object entryObj : (List<?>) manifest.parse().get("manifests")) {
+            final Map<?, ?> entry = (Map<?, ?>) entryObj;
+            if (platform.matches((Map<?, ?>) entry.get("platform"))) {
+                return registryClient.getManifest(image.repository(), (String) entry.get("digest"));
+            }
+        }
+        throw new IllegalArgumentException(String.format("Base image %s does not provide platform %s", image, platform));
+    }
+
+    static void ensureBlob(RegistryClient registryClient, ImageReference image, OciLayout layout, String digest)
+        throws IOException {
+        // blobs are content addressed, so any retained from a previous assembly can be reused as-is
+        if (!layout.hasBlob(digest)) {
+            registryClient.getBlob(image.repository(), digest, layout.blobPath(digest));
+        }
+    }
+
+    static void addCopy(TarWriter tarWriter, Path contextDir, DockerfileSpec.Copy copy) throws IOException {
+        // tar entries are relative to the root of the image filesystem
+        final String destination = copy.destination().substring(1);
+        for (final String source : copy.sources()) {
+            final Path sourcePath = contextDir.resolve(source).normalize();
+            if (!sourcePath.startsWith(contextDir)) {
+                throw new IllegalArgumentException("COPY source is outside of the build context: " + source);
+            }
+            if (Files.isDirectory(sourcePath)) {
+                tarWriter.addDirectoryContents(sourcePath, destination);
+            } else if (destination.isEmpty() || destination.endsWith("/")) {
+                tarWriter.addFile(destination + sourcePath.getFileName(), sourcePath);
+            } else {
+                tarWriter.addFile(destination, sourcePath);
+            }
+        }
+    }
+
+    private Map<String, Object> createConfig(Map<String, Object> baseConfig, DockerfileSpec spec,
+        List<String> diffIds, List<Map<String, Object>> history
+    ) {
+        final Map<String, Object> config = new LinkedHashMap<>(baseConfig);
+        config.put("created", CREATED);
+
+        final Map<String, Object> containerConfig = new LinkedHashMap<>(
+            castMap(config.getOrDefault("config", Map.of()))
+        );
+        containerConfig.put("WorkingDir", spec.getWorkingDir());
+        if (spec.getEntrypoint() != null) {
+            containerConfig.put("Entrypoint", spec.getEntrypoint());
+            // same as docker build, setting the entrypoint resets the base image's command
+            containerConfig.remove("Cmd");
+        }
+
+        final Map<String, Object> exposedPorts = new LinkedHashMap<>(
+            castMap(containerConfig.getOrDefault("ExposedPorts", Map.of()))
+        );
+        for (final String port : spec.getExposedPorts()) {
+            exposedPorts.put(port.contains("/") ? port : port + "/tcp", Map.of());
+        }
+        if (!exposedPorts.isEmpty()) {
+            containerConfig.put("ExposedPorts", exposedPorts);
+        }
+
+        if (!spec.getEnv().isEmpty()) {
+            final Map<String, String> env = new LinkedHashMap<>();
+            for (final Object entry : (List<?>) containerConfig.getOrDefault("Env", List.of())) {
+                final String[] nameValue = entry.toString().split("=", 2);
+                env.put(nameValue[0], nameValue.length > 1 ? nameValue[1] : "");
+            }
+            env.putAll(spec.getEnv());
+            containerConfig.put("Env", env.entrySet().stream()
+                .map(entry -> entry.getKey() + "=" + entry.getValue())
+                .toList());
+        }
+
+        final Map<String, Object> labels = new LinkedHashMap<>(
+            castMap(containerConfig.getOrDefault("Labels", Map.of()))
+        );
+        labels.putAll(imageLabels());
+        containerConfig.put("Labels", labels);
+        config.put("config", containerConfig);
+
+        final Map<String, Object> rootfs = new LinkedHashMap<>(castMap(config.get("rootfs")));
+        final List<Object> allDiffIds = new ArrayList<>((List<?>) rootfs.get("diff_ids"));
+        allDiffIds.addAll(diffIds);
+        rootfs.put("diff_ids", allDiffIds);
+        config.put("rootfs", rootfs);
+
+        final List<Object> allHistory = new ArrayList<>((List<?>) config.getOrDefault("history", List.of()));
+        allHistory.addAll(history);
+        config.put("history", allHistory);
+
+        return config;
+    }
+
+    private static String blobEntryName(String digest) {
+        return "blobs/sha256/" + Digests.hex(digest);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> castMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
@@ -0,0 +1,22 @@
+package me.itzg.simpleimg;
+
+import org.gradle.api.provider.Property;
+
+public abstract class BakeExtension {
+
+    /**
+     * Indicates if the dependency jars that all images with the same base image have in common
+     * should be moved into a shared base image, so that registries and nodes store them once.
+     */
+    abstract Property<Boolean> getSharedDependencies();
+
+    /**
+     * The number of images that must have the same base image for a shared base image to be created
+     */
+    abstract Property<Integer> getSharedDependenciesMinimumImages();
+
+    public BakeExtension() {
+        getSharedDependencies().convention(false);
+        getSharedDependenciesMinimumImages().convention(2);
+    }
+}
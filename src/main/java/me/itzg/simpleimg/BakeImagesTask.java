@@ -0,0 +1,157 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Combines the bake targets published by the projects of the build into one bake file and builds
+ * them all with a single {@code docker buildx bake}, so that BuildKit schedules the builds
+ * concurrently and resolves shared base images once.
+ */
+@DisableCachingByDefault(because = "Docker has it's own image build caching behavior")
+public abstract class BakeImagesTask extends DefaultTask {
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    abstract ConfigurableFileCollection getTargetFiles();
+
+    /**
+     * When enabled, the dependency jars that all images with the same base image have in common are
+     * moved into a shared base image
+     */
+    @Input
+    abstract Property<Boolean> getSharedDependencies();
+
+    /**
+     * The number of images that must have the same base image for a shared base image to be created
+     */
+    @Input
+    abstract Property<Integer> getSharedDependenciesMinimumImages();
+
+    @OutputFile
+    abstract RegularFileProperty getBakeFile();
+
+    /**
+     * Holds the contexts of the shared base images and the Dockerfiles of the images that use them
+     */
+    @OutputDirectory
+    abstract DirectoryProperty getSharedDirectory();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    @TaskAction
+    @SuppressWarnings("unchecked")
+    void bake() throws IOException {
+        final Map<String, Object> targets = new TreeMap<>();
+        for (final File targetFile : getTargetFiles()) {
+            targets.putAll((Map<String, Object>) new JsonSlurper().parse(targetFile));
+        }
+        if (targets.isEmpty()) {
+            getLogger().lifecycle("No projects with simple boot images to bake");
+            return;
+        }
+
+        final List<CacheExport> cacheExports = new ArrayList<>();
+        for (final Object target : targets.values()) {
+            final CacheExport cacheExport = resolveManagedCache((Map<String, Object>) target);
+            if (cacheExport != null) {
+                cacheExports.add(cacheExport);
+            }
+        }
+
+        // only the images are built directly, whereas shared base images are built as their contexts
+        final List<String> imageTargets = new ArrayList<>(targets.keySet());
+        if (getSharedDependencies().get()) {
+            new SharedDependencies(getSharedDirectory().get().getAsFile().toPath(),
+                getSharedDependenciesMinimumImages().get(), getLogger()
+            ).apply(targets);
+        }
+        else {
+            targets.values().forEach(target -> ((Map<String, Object>) target).remove(SharedDependencies.METADATA_KEY));
+        }
+
+        final Map<String, Object> bakeFile = new TreeMap<>();
+        bakeFile.put("group", Map.of("default", Map.of("targets", imageTargets)));
+        bakeFile.put("target", targets);
+        final File bakeFilePath = getBakeFile().get().getAsFile();
+        Files.writeString(bakeFilePath.toPath(), JsonOutput.prettyPrint(JsonOutput.toJson(bakeFile)));
+
+        getLogger().info("Baking images of {}", targets.keySet());
+
+        try {
+            getExecOperations()
+                .exec(spec -> {
+                    spec.executable("docker");
+                    final List<String> args = new ArrayList<>(List.of("buildx", "bake", "--file", bakeFilePath.getPath()));
+                    if (!getLogger().isInfoEnabled()) {
+                        args.add("--progress=quiet");
+                    }
+                    spec.args(args);
+
+                    getLogger().debug("Executing: docker {}", spec.getArgs());
+                })
+                .assertNormalExitValue();
+        } catch (RuntimeException e) {
+            for (final CacheExport cacheExport : cacheExports) {
+                cacheExport.cache().discard(cacheExport.directory());
+            }
+            throw e;
+        }
+        for (final CacheExport cacheExport : cacheExports) {
+            cacheExport.cache().commit(cacheExport.directory(), cacheExport.maxSizeBytes(), cacheExport.maxAge());
+        }
+    }
+
+    private record CacheExport(ManagedBuildCache cache, Path directory, long maxSizeBytes, Duration maxAge) {
+    }
+
+    /**
+     * Replaces the managed cache settings of a target with its cache import and a new export, which
+     * is committed when the bake succeeds.
+     *
+     * @return the export of the target's managed cache, or null if it doesn't have one
+     */
+    @SuppressWarnings("unchecked")
+    private CacheExport resolveManagedCache(Map<String, Object> target) {
+        final Map<String, Object> settings = (Map<String, Object>) target.remove(ManagedBuildCache.METADATA_KEY);
+        if (settings == null) {
+            return null;
+        }
+        final ManagedBuildCache cache = new ManagedBuildCache(Path.of((String) settings.get("directory")));
+        final Path exportDirectory = cache.newIncoming();
+        if (cache.cacheFrom() != null) {
+            target.put("cache-from", List.of(cache.cacheFrom()));
+        }
+        target.put("cache-to", List.of(ManagedBuildCache.cacheTo(exportDirectory)));
+
+        return new CacheExport(cache, exportDirectory,
+            ((Number) settings.get("maxSizeMb")).longValue() * 1024L * 1024L,
+            Duration.ofDays(((Number) settings.get("maxAgeDays")).longValue())
+        );
+    }
+}
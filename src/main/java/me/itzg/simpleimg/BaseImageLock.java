@@ -0,0 +1,122 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.gradle.process.ExecOperations;
+
+/**
+ * The digest that a base image reference resolved to, along with the digest of each platform's
+ * manifest when it is an index. Written to a project's lockfile, it pins the base image of builds,
+ * and cached in the Gradle user home, it saves resolving the same reference for every project.
+ *
+ * @param baseImage the base image reference as configured, typically a mutable tag
+ * @param digest the digest of the index or manifest that the reference resolved to
+ * @param platforms the manifest digest of each {@code os/arch[/variant]} platform of an index
+ * @param resolvedAt when the reference was resolved with its registry, which is only retained by the cache
+ */
+record BaseImageLock(String baseImage, String digest, Map<String, String> platforms, Instant resolvedAt) {
+
+    /**
+     * Resolves the base image with its registry, unless a cached resolution is younger than the TTL.
+     *
+     * @param cacheDirectory where resolutions are cached, shared by all projects
+     * @param execOperations runs the registry's credential helper, if any
+     */
+    static BaseImageLock resolve(String baseImage, Path cacheDirectory, Duration ttl, ExecOperations execOperations)
+        throws IOException {
+        final Path cacheFile = cacheDirectory.resolve(
+            Digests.hex(Digests.sha256(baseImage.getBytes(StandardCharsets.UTF_8))) + ".json"
+        );
+        if (!ttl.isZero() && Files.isRegularFile(cacheFile)) {
+            final BaseImageLock cached = read(cacheFile);
+            if (cached.baseImage().equals(baseImage) && cached.resolvedAt() != null
+                && cached.resolvedAt().plus(ttl).isAfter(Instant.now())) {
+                return cached;
+            }
+        }
+
+        final BaseImageLock resolved = resolve(baseImage, execOperations);
+        if (!ttl.isZero()) {
+            // stage then move into place, so concurrent builds only ever see complete entries
+            Files.createDirectories(cacheDirectory);
+            final Path tempFile = Files.createTempFile(cacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+            resolved.write(tempFile);
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return resolved;
+    }
+
+    private static BaseImageLock resolve(String baseImage, ExecOperations execOperations) throws IOException {
+        final ImageReference image = ImageReference.parse(baseImage);
+        final RegistryClient.Manifest manifest = new RegistryClient(image.registry(), execOperations)
+            .getManifest(image.repository(), image.manifestReference());
+
+        final Map<String, String> platforms = new TreeMap<>();
+        if (manifest.isIndex()) {
+            for (final Object entryObj : (List<?>) manifest.parse().get("manifests")) {
+                final Map<?, ?> entry = (Map<?, ?>) entryObj;
+                final Map<?, ?> platform = (Map<?, ?>) entry.get("platform");
+                // skips entries that aren't images, such as attestations
+                if (platform == null || "unknown".equals(platform.get("os"))) {
+                    continue;
+                }
+                platforms.put(new ImagePlatform((String) platform.get("os"), (String) platform.get("architecture"),
+                    (String) platform.get("variant")
+                ).toString(), (String) entry.get("digest"));
+            }
+        }
+        return new BaseImageLock(baseImage, manifest.digest(), platforms, Instant.now());
+    }
+
+    /**
+     * @return the same resolution without when it was resolved, so that a lockfile only changes with the digests
+     */
+    BaseImageLock forLockfile() {
+        return new BaseImageLock(baseImage, digest, platforms, null);
+    }
+
+    /**
+     * @return the base image reference pinned to the resolved digest, such as {@code eclipse-temurin:21@sha256:...}
+     */
+    String pinned() {
+        final int atPos = baseImage.indexOf('@');
+        return (atPos >= 0 ? baseImage.substring(0, atPos) : baseImage) + "@" + digest;
+    }
+
+    @SuppressWarnings("unchecked")
+    static BaseImageLock read(Path file) throws IOException {
+        final Map<String, Object> content = (Map<String, Object>) new JsonSlurper().parse(file.toFile());
+        final Object baseImage = content.get("baseImage");
+        final Object digest = content.get("digest");
+        if (baseImage == null || digest == null) {
+            throw new IllegalArgumentException("Base image lockfile is missing baseImage or digest: " + file);
+        }
+        final Object resolvedAt = content.get("resolvedAt");
+        return new BaseImageLock(baseImage.toString(), digest.toString(),
+            new TreeMap<>((Map<String, String>) content.getOrDefault("platforms", Map.of())),
+            resolvedAt != null ? Instant.parse(resolvedAt.toString()) : null
+        );
+    }
+
+    void write(Path file) throws IOException {
+        final Map<String, Object> content = new LinkedHashMap<>();
+        content.put("baseImage", baseImage);
+        content.put("digest", digest);
+        content.put("platforms", platforms);
+        if (resolvedAt != null) {
+            content.put("resolvedAt", resolvedAt.toString());
+        }
+        Files.writeString(file, JsonOutput.prettyPrint(JsonOutput.toJson(content)) + "\n");
+    }
+}
@@ -0,0 +1,321 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Starts the built image several times and measures the time until it's ready, from starting the
+ * container until the ready log line or a successful response of the ready URL, along with the peak
+ * resident memory of its JVM. The p50 and p95 of each are reported and compared with a baseline,
+ * which is recorded by the first benchmark or when requested.
+ */
+@DisableCachingByDefault(because = "Measures the startup of the image on this machine")
+public abstract class BenchmarkStartupTask extends DefaultTask {
+
+    private static final double MB = 1024 * 1024;
+    private static final int OUTPUT_LINES_RETAINED = 20;
+    private static final Duration PROBE_INTERVAL = Duration.ofMillis(50);
+
+    /**
+     * The image ID file written by {@code buildSimpleBootImage}
+     */
+    @Internal
+    abstract RegularFileProperty getImageIdFile();
+
+    @Internal
+    abstract Property<ContainerRunner> getRunner();
+
+    @Input
+    abstract Property<Integer> getIterations();
+
+    @Input
+    abstract Property<Integer> getWarmupIterations();
+
+    @Input
+    abstract Property<String> getReadyLogPattern();
+
+    @Optional
+    @Input
+    abstract Property<String> getReadyUrl();
+
+    @Input
+    abstract Property<Integer> getTimeoutSeconds();
+
+    @Optional
+    @Input
+    abstract Property<Double> getMaxRegressionPercent();
+
+    /**
+     * When enabled, the baseline is replaced by the results of this benchmark
+     */
+    @Input
+    abstract Property<Boolean> getUpdateBaseline();
+
+    @Internal
+    abstract RegularFileProperty getBaselineFile();
+
+    @OutputFile
+    abstract RegularFileProperty getReportFile();
+
+    /**
+     * @param readyMillis the time from starting the container until it was ready
+     * @param peakRssBytes the peak resident set size of the container's main process, or -1 if unavailable
+     */
+    record Sample(long readyMillis, long peakRssBytes) {
+    }
+
+    public BenchmarkStartupTask() {
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    void apply(SharedProperties sharedProperties) {
+        final StartupBenchmark startupBenchmark = sharedProperties.getStartupBenchmark();
+        getRunner().set(startupBenchmark.getRunner());
+        getIterations().set(startupBenchmark.getIterations());
+        getWarmupIterations().set(startupBenchmark.getWarmupIterations());
+        getReadyLogPattern().set(startupBenchmark.getReadyLogPattern());
+        getReadyUrl().set(startupBenchmark.getReadyUrl());
+        getTimeoutSeconds().set(startupBenchmark.getTimeoutSeconds());
+        getMaxRegressionPercent().set(startupBenchmark.getMaxRegressionPercent());
+        getUpdateBaseline().set(sharedProperties.getUpdateStartupBaseline());
+    }
+
+    @TaskAction
+    void benchmark() throws IOException {
+        final ContainerRunner runner = getRunner().get();
+        final String image = runner.requiresImage() ?
+            Files.readString(getImageIdFile().get().getAsFile().toPath()).trim() : null;
+        final URI readyUrl = getReadyUrl().isPresent() ? URI.create(getReadyUrl().get()) : null;
+        final Integer port = readyUrl != null ? (readyUrl.getPort() >= 0 ? readyUrl.getPort() : 80) : null;
+
+        for (int i = 0; i < getWarmupIterations().get(); i++) {
+            final Sample sample = measure(runner, image, port, readyUrl);
+            getLogger().info("Warmup start {} was ready in {} ms", i + 1, sample.readyMillis());
+        }
+        final List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < getIterations().get(); i++) {
+            final Sample sample = measure(runner, image, port, readyUrl);
+            getLogger().info("Start {} was ready in {} ms", i + 1, sample.readyMillis());
+            samples.add(sample);
+        }
+
+        final Map<String, Object> results = results(samples);
+        final Path baselineFile = getBaselineFile().get().getAsFile().toPath();
+        final Map<String, Object> baseline = Files.isRegularFile(baselineFile) ? readBaseline(baselineFile) : null;
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("image", image);
+        report.put("iterations", samples.size());
+        report.putAll(results);
+        report.put("samples", samples.stream()
+            .map(sample -> Map.of("readyMillis", sample.readyMillis(), "peakRssBytes", sample.peakRssBytes()))
+            .toList()
+        );
+        report.put("baseline", baseline);
+        final Path reportFile = getReportFile().get().getAsFile().toPath();
+        Files.createDirectories(reportFile.getParent());
+        Files.writeString(reportFile, JsonOutput.prettyPrint(JsonOutput.toJson(report)));
+
+        logSummary(results, baseline);
+
+        if (baseline == null || getUpdateBaseline().get()) {
+            Files.writeString(baselineFile, JsonOutput.prettyPrint(JsonOutput.toJson(results)));
+            getLogger().lifecycle("Recorded startup baseline in {}", baselineFile);
+        }
+        else if (getMaxRegressionPercent().isPresent()) {
+            final double regression = percentChange(baseline, results, "readyMillis", "p95");
+            if (regression > getMaxRegressionPercent().get()) {
+                throw new GradleException(String.format(
+                    "p95 time to ready regressed by %.1f%% from the baseline, which exceeds the maximum of %.1f%%. See %s",
+                    regression, getMaxRegressionPercent().get(), reportFile
+                ));
+            }
+        }
+    }
+
+    private Sample measure(ContainerRunner runner, String image, Integer port, URI readyUrl) throws IOException {
+        final Pattern readyLogPattern = Pattern.compile(getReadyLogPattern().get());
+        final Deque<String> lastLines = new ArrayDeque<>();
+        final CompletableFuture<Long> loggedReady = new CompletableFuture<>();
+        final CompletableFuture<Void> exited = new CompletableFuture<>();
+
+        final long started = System.nanoTime();
+        try (ContainerRunner.Container container = runner.start(image, port)) {
+            // drained until the container exits, so that it never blocks on its output
+            final Thread outputReader = new Thread(() -> {
+                try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(container.getOutput(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!loggedReady.isDone() && readyLogPattern.matcher(line).find()) {
+                            loggedReady.complete(System.nanoTime());
+                        }
+                        getLogger().debug("Container output: {}", line);
+                        synchronized (lastLines) {
+                            lastLines.add(line);
+                            if (lastLines.size() > OUTPUT_LINES_RETAINED) {
+                                lastLines.removeFirst();
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // treated the same as exiting
+                }
+                final IllegalStateException exit = new IllegalStateException("Container exited before it was ready");
+                loggedReady.completeExceptionally(exit);
+                exited.completeExceptionally(exit);
+            }, "startup benchmark output");
+            outputReader.setDaemon(true);
+            outputReader.start();
+
+            final long ready;
+            try {
+                ready = readyUrl != null ? probe(readyUrl, exited, started)
+                    : loggedReady.get(getTimeoutSeconds().get(), TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                final String output;
+                synchronized (lastLines) {
+                    output = String.join(System.lineSeparator(), lastLines);
+                }
+                throw new GradleException((e instanceof TimeoutException ?
+                    "Container was not ready within " + getTimeoutSeconds().get() + " seconds"
+                    : e.getCause().getMessage())
+                    + ". Its last output was:" + System.lineSeparator() + output, e);
+            }
+            return new Sample(TimeUnit.NANOSECONDS.toMillis(ready - started), container.peakRssBytes());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the container to be ready", e);
+        }
+    }
+
+    /**
+     * @return the time the URL first responded with a 2xx status
+     */
+    private long probe(URI readyUrl, CompletableFuture<Void> exited, long started)
+        throws ExecutionException, TimeoutException, InterruptedException {
+        final long deadline = started + TimeUnit.SECONDS.toNanos(getTimeoutSeconds().get());
+        final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+        final HttpRequest request = HttpRequest.newBuilder(readyUrl)
+            .timeout(Duration.ofSeconds(1))
+            .build();
+        while (System.nanoTime() < deadline) {
+            if (exited.isDone()) {
+                exited.get();
+            }
+            try {
+                final int status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status >= 200 && status < 300) {
+                    return System.nanoTime();
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(PROBE_INTERVAL.toMillis());
+        }
+        throw new TimeoutException();
+    }
+
+    static Map<String, Object> results(List<Sample> samples) {
+        final Map<String, Object> results = new LinkedHashMap<>();
+        final List<Long> readyMillis = samples.stream().map(Sample::readyMillis).sorted().toList();
+        results.put("readyMillis", Map.of("p50", percentile(readyMillis, 50), "p95", percentile(readyMillis, 95)));
+        final List<Long> peakRss = samples.stream().map(Sample::peakRssBytes).filter(rss -> rss >= 0).sorted().toList();
+        if (!peakRss.isEmpty()) {
+            results.put("peakRssMb", Map.of(
+                "p50", Math.round(percentile(peakRss, 50) / MB), "p95", Math.round(percentile(peakRss, 95) / MB)
+            ));
+        }
+        return results;
+    }
+
+    /**
+     * @param sorted values in ascending order
+     * @return the nearest-rank percentile
+     */
+    static long percentile(List<Long> sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private void logSummary(Map<String, Object> results, Map<String, Object> baseline) {
+        for (final String metric : List.of("readyMillis", "peakRssMb")) {
+            final Map<String, Object> current = castMap(results.get(metric));
+            if (current == null) {
+                continue;
+            }
+            final String unit = metric.equals("readyMillis") ? "ms" : "MB";
+            final String label = metric.equals("readyMillis") ? "Time to ready" : "Peak RSS";
+            if (baseline != null && baseline.get(metric) != null) {
+                getLogger().lifecycle("{}: p50 {} {} ({}), p95 {} {} ({})", label,
+                    current.get("p50"), unit, formatChange(percentChange(baseline, results, metric, "p50")),
+                    current.get("p95"), unit, formatChange(percentChange(baseline, results, metric, "p95"))
+                );
+            }
+            else {
+                getLogger().lifecycle("{}: p50 {} {}, p95 {} {}", label,
+                    current.get("p50"), unit, current.get("p95"), unit
+                );
+            }
+        }
+    }
+
+    private static double percentChange(Map<String, Object> baseline, Map<String, Object> results,
+        String metric, String percentile
+    ) {
+        final double previous = ((Number) castMap(baseline.get(metric)).get(percentile)).doubleValue();
+        final double current = ((Number) castMap(results.get(metric)).get(percentile)).doubleValue();
+        return previous > 0 ? (current - previous) / previous * 100 : 0;
+    }
+
+    private static String formatChange(double percent) {
+        return String.format("%+.1f%% from baseline", percent);
+    }
+
+    private static Map<String, Object> readBaseline(Path baselineFile) {
+        try {
+            return castMap(new JsonSlurper().parse(baselineFile.toFile()));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Startup baseline " + baselineFile + " is malformed", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
@@ -1,6 +1,9 @@
 package me.itzg.simpleimg;
 
+import org.gradle.api.Action;
+import org.gradle.api.NamedDomainObjectList;
 import org.gradle.api.Project;
+import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
@@ -14,6 +17,12 @@ public abstract class BootImageExtension {
 
     abstract Property<String> getBaseImage();
 
+    /**
+     * How long {@code lockSimpleBootImageBase} reuses a resolution of the base image, shared by all
+     * projects, before resolving it with the registry again. Zero disables the reuse.
+     */
+    abstract Property<Integer> getBaseImageResolutionTtlMinutes();
+
     abstract Property<Integer> getExposePort();
 
     abstract Property<String> getImageRepo();
@@ -32,29 +41,160 @@ public abstract class BootImageExtension {
 
     abstract Property<Boolean> getPush();
 
+    /**
+     * Indicates if the buildx cache should be a local cache in the Gradle user home that is managed
+     * by the plugin, rather than {@link #getCacheFrom()} and {@link #getCacheTo()}.
+     */
+    abstract Property<Boolean> getManagedCache();
+
+    /**
+     * The maximum total size of the managed caches of all projects
+     */
+    abstract Property<Integer> getManagedCacheMaxSizeMb();
+
+    /**
+     * The number of days after which an unused managed cache is evicted
+     */
+    abstract Property<Integer> getManagedCacheMaxAgeDays();
+
+    /**
+     * Indicates if {@code pushSimpleBootImage} should push the assembled OCI image directly to the
+     * registry rather than building with and pushing from the Docker daemon.
+     */
+    abstract Property<Boolean> getNativePush();
+
     abstract ListProperty<String> getPlatforms();
 
     @Nested
     abstract ImageLabels getLabels();
 
+    /**
+     * The resource limits of the containers that will run the image, from which JVM options are generated
+     */
+    @Nested
+    abstract JvmTuning getJvmTuning();
+
+    /**
+     * The size limits checked by {@code analyzeSimpleBootImage}
+     */
+    @Nested
+    abstract SizeBudgets getSizeBudgets();
+
+    /**
+     * How {@code benchmarkSimpleBootImageStartup} starts the image and decides that it's ready
+     */
+    @Nested
+    abstract StartupBenchmark getStartupBenchmark();
+
+    /**
+     * Indicates if a class data sharing archive should be created by a training run of the
+     * application during the image build, to reduce the startup time of containers. Requires a
+     * fat jar image or the {@code classpath} launch mode.
+     */
+    abstract Property<Boolean> getClassDataSharing();
+
     /**
      * Indicates if the built image should use Spring Boot's layertools and index or just
      * bundle and execute the jar as-is.
      */
     abstract Property<Boolean> getLayered();
 
+    /**
+     * Indicates if layer extraction should only re-write the files that changed since the
+     * previous extraction rather than re-extracting everything.
+     */
+    abstract Property<Boolean> getIncrementalExtraction();
+
+    /**
+     * Either {@code launcher}, where the application is started by Spring Boot's {@code JarLauncher}, or
+     * {@code classpath}, where the application's main class is started directly from a plain classpath.
+     */
+    abstract Property<String> getLaunchMode();
+
+    /**
+     * The maximum size of the cache of compressed layers that is shared across builds in the
+     * Gradle user home, where zero disables the cache.
+     */
+    abstract Property<Integer> getLayerCacheMaxSizeMb();
+
+    /**
+     * The compression of the image's layers, either {@code gzip}, {@code zstd}, or {@code estargz},
+     * where the latter two require building with buildx.
+     */
+    abstract Property<String> getLayerCompression();
+
+    /**
+     * The level of the layer compression, where unset uses the compression's default
+     */
+    abstract Property<Integer> getLayerCompressionLevel();
+
+    /**
+     * The maximum size of the store of dependency jars that is shared across builds in the Gradle
+     * user home and hard-linked into extracted layers, where zero disables the store.
+     */
+    abstract Property<Integer> getDependencyStoreMaxSizeMb();
+
+    private final NamedDomainObjectList<DependencyLayer> dependencyLayers;
+
+    /**
+     * Indicates if the timings of the image build phases, including each BuildKit step and whether
+     * it was cached, should be reported for all projects of the build.
+     */
+    abstract Property<Boolean> getTimingReport();
+
+    @Inject
+    protected abstract ObjectFactory getObjects();
+
     @Inject
     public BootImageExtension(Project project) {
+        dependencyLayers = project.getObjects().namedDomainObjectList(DependencyLayer.class);
         getBaseImage().convention(Defaults.DEFAULT_BASE_IMAGE);
+        getBaseImageResolutionTtlMinutes().convention(Defaults.DEFAULT_BASE_IMAGE_RESOLUTION_TTL_MINUTES);
         getExposePort().convention(Defaults.DEFAULT_EXPOSE_PORT);
         getImageName().convention(provider(project, project::getName));
         getTags().convention(project.getProviders().provider(() -> List.of("latest", project.getVersion().toString())));
         getUseBuildx().convention(true);
         getPullForBuild().convention( false);
         getPush().convention(false);
+        getNativePush().convention(false);
+        getManagedCache().convention(false);
+        getManagedCacheMaxSizeMb().convention(Defaults.DEFAULT_MANAGED_CACHE_MAX_SIZE_MB);
+        getManagedCacheMaxAgeDays().convention(Defaults.DEFAULT_MANAGED_CACHE_MAX_AGE_DAYS);
         getLayered().convention(true);
+        getClassDataSharing().convention(false);
+        getTimingReport().convention(false);
+        getIncrementalExtraction().convention(true);
+        getLaunchMode().convention(ClasspathJar.LAUNCHER_MODE);
+        getLayerCacheMaxSizeMb().convention(Defaults.DEFAULT_LAYER_CACHE_MAX_SIZE_MB);
+        getLayerCompression().convention(LayerCompression.GZIP);
+        getDependencyStoreMaxSizeMb().convention(Defaults.DEFAULT_DEPENDENCY_STORE_MAX_SIZE_MB);
+    }
+
+    /**
+     * The additional dependency layers in the order they were declared, which is also the order
+     * dependencies are matched against them.
+     */
+    NamedDomainObjectList<DependencyLayer> getDependencyLayers() {
+        return dependencyLayers;
+    }
+
+    /**
+     * Declares an additional layer for the dependencies it includes, which is placed after the
+     * standard {@code dependencies} layer.
+     */
+    public void dependencyLayer(String name, Action<? super DependencyLayer> action) {
+        final DependencyLayer dependencyLayer = getObjects().newInstance(DependencyLayer.class, name);
+        action.execute(dependencyLayer);
+        dependencyLayers.add(dependencyLayer);
+    }
+
+    public void sizeBudgets(Action<? super SizeBudgets> action) {
+        action.execute(getSizeBudgets());
     }
 
+    public void startupBenchmark(Action<? super StartupBenchmark> action) {
+        action.execute(getStartupBenchmark());
+    }
 
     private static <T> Provider<T> provider(Project project, Callable<T> callable) {
         return project.getProviders().provider(callable);
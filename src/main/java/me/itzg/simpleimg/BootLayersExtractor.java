@@ -0,0 +1,254 @@
+package me.itzg.simpleimg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts the layers of a Spring Boot jar in-process, equivalent to
+ * {@code java -Djarmode=tools -jar app.jar extract --layers --launcher}, by reading
+ * {@code BOOT-INF/layers.idx} and streaming each entry into its layer's directory.
+ * <p>
+ * When extracting incrementally, files already in the destination are kept as-is when their
+ * size and CRC match the jar's central directory, so their timestamps stay stable for Docker's
+ * build cache.
+ * <p>
+ * With a {@link DependencyJarStore}, dependency jars are hard-linked from the store rather than
+ * written again, and ones already linked to the store are known to be unchanged without reading them.
+ * <p>
+ * For the classpath launch mode, the application's classes are written to a {@link ClasspathJar} in
+ * their layer rather than extracted.
+ */
+class BootLayersExtractor {
+
+    static final String LAYERS_INDEX = "BOOT-INF/layers.idx";
+
+    private static final Pattern LAYER_LINE = Pattern.compile("- \"(.+)\":");
+    private static final Pattern ENTRY_LINE = Pattern.compile("\\s+- \"(.+)\"");
+
+    /**
+     * Indicates the jar can't be extracted in-process and the caller should fall back to
+     * Spring Boot's own jarmode tooling.
+     */
+    static class UnsupportedJarException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedJarException(String message) {
+            super(message);
+        }
+    }
+
+    private final Path jarPath;
+    private final DependencyJarStore dependencyJarStore;
+    private final boolean classpathJar;
+
+    BootLayersExtractor(Path jarPath) {
+        this(jarPath, null, false);
+    }
+
+    /**
+     * @param dependencyJarStore the store to place dependency jars from, or {@code null}
+     * @param classpathJar when true, the application's classes are written to a {@link ClasspathJar}
+     */
+    BootLayersExtractor(Path jarPath, DependencyJarStore dependencyJarStore, boolean classpathJar) {
+        this.jarPath = jarPath;
+        this.dependencyJarStore = dependencyJarStore;
+        this.classpathJar = classpathJar;
+    }
+
+    record Result(int written, int unchanged, int deleted) {
+    }
+
+    Result extract(Path layersDirectory, boolean incremental) throws IOException, UnsupportedJarException {
+        final Path destination = layersDirectory.normalize();
+        try (ZipFile zipFile = new ZipFile(jarPath.toFile())) {
+            final Map<String, List<String>> layers = readLayersIndex(zipFile);
+
+            final Set<Path> stale = incremental ? existingFiles(destination) : new HashSet<>();
+            int written = 0;
+            int unchanged = 0;
+
+            for (final String layer : layers.keySet()) {
+                Files.createDirectories(destination.resolve(layer));
+            }
+
+            final String classesLayer = classpathJar ? layerFor(layers, ClasspathJar.CLASSES_PREFIX) : null;
+            if (classpathJar && classesLayer == null) {
+                throw new UnsupportedJarException("No layer defined in index for " + ClasspathJar.CLASSES_PREFIX);
+            }
+
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || (classpathJar && entry.getName().startsWith(ClasspathJar.CLASSES_PREFIX))) {
+                    continue;
+                }
+
+                final String layer = layerFor(layers, entry.getName());
+                if (layer == null) {
+                    throw new UnsupportedJarException("No layer defined in index for " + entry.getName());
+                }
+
+                final Path layerDir = destination.resolve(layer);
+                final Path target = layerDir.resolve(entry.getName()).normalize();
+                if (!target.startsWith(layerDir)) {
+                    throw new UnsupportedJarException("Entry is outside of the layer directory: " + entry.getName());
+                }
+
+                final boolean stored = dependencyJarStore != null && DependencyJarStore.accepts(entry);
+                if (stale.remove(target)
+                    && ((stored && dependencyJarStore.isLinked(entry, target)) || matches(target, entry))) {
+                    unchanged++;
+                    continue;
+                }
+
+                Files.createDirectories(target.getParent());
+                if (stored) {
+                    dependencyJarStore.place(zipFile, entry, target);
+                }
+                else {
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                if (entry.getTime() >= 0) {
+                    Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getTime()));
+                }
+                written++;
+            }
+
+            if (classpathJar) {
+                final Path jar = destination.resolve(classesLayer).resolve(ClasspathJar.FILE_NAME);
+                stale.remove(jar);
+                if (ClasspathJar.write(zipFile, jar)) {
+                    written++;
+                }
+                else {
+                    unchanged++;
+                }
+            }
+
+            for (final Path path : stale) {
+                Files.delete(path);
+            }
+            if (!stale.isEmpty()) {
+                deleteEmptyDirectories(destination, layers.keySet());
+            }
+            if (dependencyJarStore != null) {
+                dependencyJarStore.evict();
+            }
+
+            return new Result(written, unchanged, stale.size());
+        }
+    }
+
+    private static Set<Path> existingFiles(Path destination) throws IOException {
+        if (!Files.isDirectory(destination)) {
+            return new HashSet<>();
+        }
+        try (Stream<Path> paths = Files.walk(destination)) {
+            return paths
+                .filter(Files::isRegularFile)
+                .map(Path::normalize)
+                .collect(Collectors.toCollection(HashSet::new));
+        }
+    }
+
+    private static boolean matches(Path file, ZipEntry entry) throws IOException {
+        if (entry.getSize() < 0 || entry.getCrc() < 0 || Files.size(file) != entry.getSize()) {
+            return false;
+        }
+        final CRC32 crc = new CRC32();
+        try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(file), crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return crc.getValue() == entry.getCrc();
+    }
+
+    private static void deleteEmptyDirectories(Path destination, Set<String> layers) throws IOException {
+        final List<Path> directories;
+        try (Stream<Path> paths = Files.walk(destination)) {
+            directories = paths
+                .filter(Files::isDirectory)
+                // deepest first, so parents become empty as children are removed
+                .sorted(Comparator.comparingInt(Path::getNameCount).reversed())
+                .toList();
+        }
+        for (final Path directory : directories) {
+            if (directory.equals(destination)
+                || (directory.getParent().equals(destination) && layers.contains(directory.getFileName().toString()))) {
+                continue;
+            }
+            try (Stream<Path> children = Files.list(directory)) {
+                if (children.findAny().isEmpty()) {
+                    Files.delete(directory);
+                }
+            }
+        }
+    }
+
+    static Map<String, List<String>> readLayersIndex(ZipFile zipFile) throws IOException, UnsupportedJarException {
+        final ZipEntry indexEntry = zipFile.getEntry(LAYERS_INDEX);
+        if (indexEntry == null) {
+            throw new UnsupportedJarException("Jar does not contain " + LAYERS_INDEX);
+        }
+
+        // keep the index order since it's the order the layers are applied
+        final Map<String, List<String>> layers = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(zipFile.getInputStream(indexEntry), StandardCharsets.UTF_8))) {
+            List<String> current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                final Matcher layerMatcher = LAYER_LINE.matcher(line);
+                final Matcher entryMatcher = ENTRY_LINE.matcher(line);
+                if (layerMatcher.matches()) {
+                    current = new ArrayList<>();
+                    layers.put(layerMatcher.group(1), current);
+                } else if (entryMatcher.matches() && current != null) {
+                    current.add(entryMatcher.group(1));
+                } else {
+                    throw new UnsupportedJarException("Unexpected line in " + LAYERS_INDEX + ": " + line);
+                }
+            }
+        }
+        return layers;
+    }
+
+    static String layerFor(Map<String, List<String>> layers, String entryName) {
+        for (final Map.Entry<String, List<String>> layer : layers.entrySet()) {
+            for (final String indexed : layer.getValue()) {
+                if (indexed.endsWith("/") ? entryName.startsWith(indexed) : entryName.equals(indexed)) {
+                    return layer.getKey();
+                }
+            }
+        }
+        return null;
+    }
+}
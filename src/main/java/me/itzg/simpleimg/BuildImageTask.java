@@ -1,38 +1,36 @@
 package me.itzg.simpleimg;
 
+import groovy.json.JsonSlurper;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import javax.inject.Inject;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.ListProperty;
-import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
 import org.gradle.work.DisableCachingByDefault;
 
 @DisableCachingByDefault(because = "Docker has it's own image build caching behavior")
-public abstract class BuildImageTask extends ImageHandlingTask {
+public abstract class BuildImageTask extends ImageBuildingTask {
 
-    @InputDirectory
-    @PathSensitive(PathSensitivity.ABSOLUTE)
-    abstract DirectoryProperty getBootImageDirectory();
-
-    @InputFile
-    @PathSensitive(PathSensitivity.ABSOLUTE)
-    abstract RegularFileProperty getDockerfile();
-
-    @Input
-    abstract Property<String> getBaseImage();
-
-    @Input
-    abstract Property<Integer> getExposePort();
+    private static final String CONTEXT_DOCKERFILE = "Dockerfile";
+    private static final int CONTEXT_PIPE_SIZE = 64 * 1024;
+    private static final String IMAGE_DIGEST_KEY = "containerimage.digest";
 
     @Input
     abstract Property<Boolean> getUseBuildx();
@@ -55,95 +53,251 @@ public abstract class BuildImageTask extends ImageHandlingTask {
     @Input
     abstract ListProperty<String> getPlatforms();
 
-    @Optional
-    @Input
-    abstract Property<String> getImageDescription();
-
-    @Optional
-    @Input
-    abstract Property<String> getImageTitle();
-
-    @Optional
-    @Input
-    abstract Property<String> getImageVersion();
-
-    @Optional
-    @Input
-    abstract Property<String> getImageRevision();
-
-    @Optional
+    /**
+     * When enabled, the build imports from and exports to a local cache managed by the plugin
+     */
     @Input
-    abstract Property<String> getImageSourceUrl();
-
-    @Optional
-    @Input
-    abstract MapProperty<String, String> getExtraImageLabels();
+    abstract Property<Boolean> getManagedCache();
+
+    /**
+     * The managed cache of this project, within the directory of all managed caches
+     */
+    @Internal
+    abstract DirectoryProperty getManagedCacheDirectory();
+
+    @Internal
+    abstract Property<Integer> getManagedCacheMaxSizeMb();
+
+    @Internal
+    abstract Property<Integer> getManagedCacheMaxAgeDays();
+
+    /**
+     * Records the ID of the built image, which is the digest of its config, so that the task can be
+     * up-to-date when its inputs haven't changed and that image still exists.
+     */
+    @OutputFile
+    abstract RegularFileProperty getImageIdFile();
+
+    /**
+     * Records the build metadata of buildx, whose {@value #IMAGE_DIGEST_KEY} is the manifest digest that
+     * the registry reports for the tags of a pushed image
+     */
+    @OutputFile
+    abstract RegularFileProperty getMetadataFile();
 
     @Inject
     protected abstract ExecOperations getExecOperations();
 
+    public BuildImageTask() {
+        // a mutable base image tag is only re-resolved when pulling is requested, whereas a locked one can't change
+        getOutputs().upToDateWhen(task -> (!getPullForBuild().get() || isBaseImageLocked()) && builtImageExists());
+    }
+
     @Override
     void apply(SharedProperties sharedProperties) {
-        getBaseImage().set(sharedProperties.getBaseImage());
-        getExposePort().set(sharedProperties.getExposePort());
         getUseBuildx().set(sharedProperties.getUseBuildx());
         getPullForBuild().set(sharedProperties.getPullForBuild());
         getCacheFrom().set(sharedProperties.getCacheFrom());
-        if (getUseBuildx().get()) {
-            getCacheTo().set(sharedProperties.getCacheTo());
-            getPlatforms().set(sharedProperties.getPlatforms());
-        } else {
-            throw new IllegalArgumentException("Can't set cacheTo without buildx enabled");
-        }
-        getPush().set(sharedProperties.getPush().get() && getUseBuildx().get());
-        getImageDescription().set(sharedProperties.getLabels().getDescription());
-        getImageTitle().set(sharedProperties.getLabels().getTitle());
-        getImageVersion().set(sharedProperties.getLabels().getVersion());
-        getImageRevision().set(sharedProperties.getLabels().getRevision());
-        getImageSourceUrl().set(sharedProperties.getLabels().getSourceUrl());
-        getExtraImageLabels().set(sharedProperties.getLabels().getExtra());
+        getCacheTo().set(sharedProperties.getCacheTo());
+        getPlatforms().set(sharedProperties.getPlatforms());
+        getManagedCache().set(sharedProperties.getManagedCache());
+        getManagedCacheMaxSizeMb().set(sharedProperties.getManagedCacheMaxSizeMb());
+        getManagedCacheMaxAgeDays().set(sharedProperties.getManagedCacheMaxAgeDays());
+        getPush().set(sharedProperties.getPush().zip(sharedProperties.getUseBuildx(), (push, useBuildx) -> push && useBuildx));
 
         super.apply(sharedProperties);
     }
 
     @TaskAction
     void build() throws IOException {
+        if (!getUseBuildx().get() && getCacheTo().isPresent()) {
+            throw new IllegalArgumentException("Can't set cacheTo without buildx enabled");
+        }
+        if (getManagedCache().get() && (!getUseBuildx().get() || getCacheFrom().isPresent() || getCacheTo().isPresent())) {
+            throw new IllegalArgumentException("managedCache requires buildx and replaces cacheFrom and cacheTo");
+        }
+
         final var fullImageName = calculateFullImageName();
 
         getLogger().info("Building {} with base image {} tagged with {}",
-            fullImageName, getBaseImage().get(), getTags().get()
+            fullImageName, lockedBaseImage(), getTags().get()
         );
 
-        if (getLogger().isTraceEnabled()) {
-            try (Stream<Path> pathStream = Files.walk(getBootImageDirectory().get().getAsFile().toPath())) {
-                pathStream
-                    .forEach(path -> getLogger().trace("Context: {}{}", path, Files.isDirectory(path) ? "/" : ""));
+        final Path imageIdFile = getImageIdFile().get().getAsFile().toPath();
+        Files.deleteIfExists(imageIdFile);
+        Files.deleteIfExists(getMetadataFile().get().getAsFile().toPath());
+
+        final long started = System.nanoTime();
+        // BuildKit's own progress is only parsed when reporting timings, since it replaces the usual output
+        final BuildProgressParser progressParser = getTimingService().isPresent() && usesBuildx() ?
+            new BuildProgressParser(getLogger()) : null;
+
+        final ManagedBuildCache managedCache = getManagedCache().get() ?
+            new ManagedBuildCache(getManagedCacheDirectory().get().getAsFile().toPath()) : null;
+        final Path cacheExport = managedCache != null ? managedCache.newIncoming() : null;
+        final List<String> args = createArgsList(managedCache, cacheExport);
+
+        final Path contextDir = getBootImageDirectory().get().getAsFile().toPath();
+        final DockerfileSpec dockerfileSpec = DockerfileSpec.parse(getDockerfile().get().getAsFile().toPath(), buildArgs());
+
+        // the context is streamed to docker as it is written, rather than staged as a file
+        final PipedInputStream contextIn = new PipedInputStream(CONTEXT_PIPE_SIZE);
+        final PipedOutputStream contextOut = new PipedOutputStream(contextIn);
+        final CompletableFuture<Void> contextWriter = CompletableFuture.runAsync(() -> {
+            try (TarWriter tarWriter = new TarWriter(new BufferedOutputStream(contextOut, CONTEXT_PIPE_SIZE))) {
+                writeContext(tarWriter, contextDir, dockerfileSpec);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+        });
+
+        try {
+            getExecOperations()
+                .exec(spec -> {
+                    spec.executable("docker");
+                    spec.args(args);
+                    spec.setStandardInput(contextIn);
+                    if (progressParser != null) {
+                        spec.setErrorOutput(progressParser);
+                    }
+
+                    getLogger().debug("Executing: docker {}", spec.getArgs());
+                })
+                .assertNormalExitValue();
+        } catch (RuntimeException e) {
+            if (managedCache != null) {
+                managedCache.discard(cacheExport);
+            }
+            throw e;
+        } finally {
+            // unblocks the writer if docker stopped reading early
+            contextIn.close();
+        }
+
+        try {
+            contextWriter.join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to write build context", e.getCause());
         }
 
-        getExecOperations()
-            .exec(spec -> {
-                spec.executable("docker");
-                spec.args(createArgsList());
+        if (managedCache != null) {
+            managedCache.commit(cacheExport, getManagedCacheMaxSizeMb().get() * 1024L * 1024L,
+                Duration.ofDays(getManagedCacheMaxAgeDays().get())
+            );
+        }
 
-                getLogger().debug("Executing: docker {}", spec.getArgs());
-            })
-            .assertNormalExitValue();
+        if (progressParser != null) {
+            progressParser.close();
+            for (final BuildProgressParser.Step step : progressParser.getSteps()) {
+                if (step.duration() != null) {
+                    getTimingService().get().record(getPath(), step.name(), step.duration(), step.cached());
+                }
+            }
+        }
+        BuildTimingService.record(getTimingService(), this, "docker build", started);
     }
 
-    private List<String> createArgsList() {
+    /**
+     * Writes a build context that only contains the generated Dockerfile and the files it copies,
+     * at the same relative paths as in the boot image directory.
+     */
+    private void writeContext(TarWriter tarWriter, Path contextDir, DockerfileSpec dockerfileSpec) throws IOException {
+        tarWriter.addFile(CONTEXT_DOCKERFILE, Files.readAllBytes(getDockerfile().get().getAsFile().toPath()));
+
+        for (final DockerfileSpec.Copy copy : dockerfileSpec.getCopies()) {
+            for (final String source : copy.sources()) {
+                final Path sourcePath = contextDir.resolve(source).normalize();
+                if (!sourcePath.startsWith(contextDir) || sourcePath.equals(contextDir)) {
+                    throw new IllegalArgumentException("COPY source must be within the build context: " + source);
+                }
+                final String entryName = TarWriter.toEntryName(contextDir.relativize(sourcePath));
+                getLogger().trace("Context: {}", entryName);
+                if (Files.isDirectory(sourcePath)) {
+                    tarWriter.addDirectoryContents(sourcePath, entryName + "/");
+                } else {
+                    tarWriter.addFile(entryName, sourcePath);
+                }
+            }
+        }
+    }
+
+    private boolean builtImageExists() {
+        final Path imageIdFile = getImageIdFile().get().getAsFile().toPath();
+        try {
+            if (!Files.isRegularFile(imageIdFile)) {
+                return false;
+            }
+            final String imageId = Files.readString(imageIdFile).trim();
+            if (imageId.isEmpty()) {
+                return false;
+            }
+
+            if (getPush().get()) {
+                final Path metadataFile = getMetadataFile().get().getAsFile().toPath();
+                if (!Files.isRegularFile(metadataFile)) {
+                    return false;
+                }
+                final Object digest = ((Map<?, ?>) new JsonSlurper().parse(metadataFile.toFile())).get(IMAGE_DIGEST_KEY);
+                if (digest == null) {
+                    return false;
+                }
+                final ImageReference image = ImageReference.parse(calculateFullImageName());
+                final RegistryClient registryClient = new RegistryClient(image.registry(), getExecOperations());
+                for (final String tag : getTags().get()) {
+                    if (!digest.equals(registryClient.manifestDigest(image.repository(), tag))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            else {
+                final ExecResult result = getExecOperations().exec(spec -> {
+                    spec.commandLine("docker", "image", "inspect", "--format", "{{.Id}}", imageId);
+                    spec.setStandardOutput(OutputStream.nullOutputStream());
+                    spec.setErrorOutput(OutputStream.nullOutputStream());
+                    spec.setIgnoreExitValue(true);
+                });
+                return result.getExitValue() == 0;
+            }
+        } catch (IOException | RuntimeException e) {
+            getLogger().debug("Unable to confirm that image {} exists", imageIdFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * @param exporterAttributes from {@link LayerCompression#exporterAttributes(String, Integer)}
+     * @return the buildx arguments that push or load the image
+     */
+    static List<String> outputArgs(boolean push, List<String> exporterAttributes) {
+        if (exporterAttributes.isEmpty()) {
+            return List.of(push ? "--push" : "--load");
+        }
+        // same as --push and --load, with the compression of the exported layers
+        return List.of("--output",
+            (push ? "type=image,push=true," : "type=docker,") + String.join(",", exporterAttributes)
+        );
+    }
+
+    /**
+     * @param cacheExport where the managed cache, if any, is exported
+     */
+    private List<String> createArgsList(ManagedBuildCache managedCache, Path cacheExport) {
         final ArrayList<String> args = new ArrayList<>();
         if (usesBuildx()) {
             args.add("buildx");
         }
         args.add("build");
 
-        if (!getLogger().isInfoEnabled()) {
+        if (getTimingService().isPresent() && usesBuildx()) {
+            args.add("--progress=rawjson");
+        } else if (!getLogger().isInfoEnabled()) {
             args.add("--quiet");
         }
 
-        addBuildArg(args, "BASE_IMG", getBaseImage().get());
-        addBuildArg(args, "EXPOSE_PORT", getExposePort().get());
+        for (final Map.Entry<String, String> entry : buildArgs().entrySet()) {
+            addBuildArg(args, entry.getKey(), entry.getValue());
+        }
 
         final var imageTags = expandImageTags();
         for (final String imageTag : imageTags) {
@@ -151,22 +305,41 @@ public abstract class BuildImageTask extends ImageHandlingTask {
             args.add(imageTag);
         }
 
+        args.add("--iidfile");
+        args.add(getImageIdFile().get().getAsFile().getPath());
+        if (usesBuildx()) {
+            args.add("--metadata-file");
+            args.add(getMetadataFile().get().getAsFile().getPath());
+        }
+
+        // relative to the root of the context that is streamed via stdin
         args.add("--file");
-        args.add(getDockerfile().get().getAsFile().getPath());
+        args.add(CONTEXT_DOCKERFILE);
 
         addOptionalArg(args, "--cache-from", getCacheFrom());
         addOptionalArg(args, "--cache-to", getCacheTo());
+        if (managedCache != null) {
+            if (managedCache.cacheFrom() != null) {
+                args.add("--cache-from");
+                args.add(managedCache.cacheFrom());
+            }
+            args.add("--cache-to");
+            args.add(ManagedBuildCache.cacheTo(cacheExport));
+        }
 
-        if (getPullForBuild().get()) {
+        if (getPullForBuild().get() && !isBaseImageLocked()) {
             args.add("--pull");
         }
 
+        final List<String> exporterAttributes = LayerCompression.exporterAttributes(
+            getLayerCompression().get(), getLayerCompressionLevel().getOrNull()
+        );
+        if (!exporterAttributes.isEmpty() && !usesBuildx()) {
+            throw new IllegalArgumentException("layerCompression and layerCompressionLevel require buildx");
+        }
+
         if (usesBuildx()) {
-            if (getPush().get()) {
-                args.add("--push");
-            } else {
-                args.add("--load");
-            }
+            args.addAll(outputArgs(getPush().get(), exporterAttributes));
 
             if (getPlatforms().isPresent() && !getPlatforms().get().isEmpty()) {
                 args.add("--platform");
@@ -174,32 +347,16 @@ public abstract class BuildImageTask extends ImageHandlingTask {
             }
         }
 
-        addLabel(args, "org.opencontainers.image.description", getImageDescription());
-        addLabel(args, "org.opencontainers.image.title", getImageTitle());
-        addLabel(args, "org.opencontainers.image.version", getImageVersion());
-        addLabel(args, "org.opencontainers.image.revision", getImageRevision());
-        addLabel(args, "org.opencontainers.image.source", getImageSourceUrl());
-        for (final Map.Entry<String,String> entry : getExtraImageLabels().get().entrySet()) {
+        for (final Map.Entry<String,String> entry : imageLabels().entrySet()) {
             args.add("--label");
             args.add(entry.getKey() + "=" + entry.getValue());
         }
 
-        args.add(getBootImageDirectory().get().getAsFile().getPath());
+        args.add("-");
 
         return args;
     }
 
-    private void addLabel(ArrayList<String> args, String labelName, Property<String> property) {
-        if (hasValue(property)) {
-            args.add("--label");
-            args.add(labelName + "=" + property.get());
-        }
-    }
-
-    private boolean hasValue(Property<String> property) {
-        return property.isPresent() && !property.get().isBlank();
-    }
-
     private void addOptionalArg(ArrayList<String> args, String arg, Property<String> value) {
         if (value.isPresent()) {
             args.add(arg);
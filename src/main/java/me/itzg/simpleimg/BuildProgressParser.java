@@ -0,0 +1,120 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonSlurper;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Parses the {@code --progress=rawjson} output of buildx, where each line is a BuildKit solve
+ * status, into the duration and cache status of each build step. Lines that aren't JSON, such as
+ * warnings, are logged as-is.
+ */
+class BuildProgressParser extends OutputStream {
+
+    /**
+     * @param duration null if the step never completed
+     */
+    record Step(String name, Duration duration, boolean cached, String error) {
+    }
+
+    private static final class Vertex {
+        String name;
+        Instant started;
+        Instant completed;
+        boolean cached;
+        String error;
+    }
+
+    private final Logger logger;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final Map<String, Vertex> vertices = new LinkedHashMap<>();
+
+    BuildProgressParser(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void write(int b) {
+        if (b == '\n') {
+            parseLine(line.toString(StandardCharsets.UTF_8).trim());
+            line.reset();
+        }
+        else {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (line.size() > 0) {
+            parseLine(line.toString(StandardCharsets.UTF_8).trim());
+            line.reset();
+        }
+    }
+
+    List<Step> getSteps() {
+        final List<Step> steps = new ArrayList<>();
+        for (final Vertex vertex : vertices.values()) {
+            steps.add(new Step(
+                vertex.name,
+                vertex.started != null && vertex.completed != null ? Duration.between(vertex.started, vertex.completed) : null,
+                vertex.cached,
+                vertex.error
+            ));
+        }
+        return steps;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void parseLine(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (!text.startsWith("{")) {
+            logger.info(text);
+            return;
+        }
+        final Map<String, Object> status;
+        try {
+            status = (Map<String, Object>) new JsonSlurper().parseText(text);
+        } catch (RuntimeException e) {
+            logger.info(text);
+            return;
+        }
+
+        final Object statusVertices = status.get("vertexes");
+        if (statusVertices instanceof List<?> list) {
+            for (final Object item : list) {
+                updateVertex((Map<String, Object>) item);
+            }
+        }
+    }
+
+    private void updateVertex(Map<String, Object> update) {
+        final Vertex vertex = vertices.computeIfAbsent((String) update.get("digest"), digest -> new Vertex());
+        if (update.get("name") != null) {
+            vertex.name = (String) update.get("name");
+        }
+        if (update.get("started") != null) {
+            vertex.started = Instant.parse((String) update.get("started"));
+        }
+        if (update.get("completed") != null) {
+            vertex.completed = Instant.parse((String) update.get("completed"));
+        }
+        if (Boolean.TRUE.equals(update.get("cached"))) {
+            vertex.cached = true;
+        }
+        if (update.get("error") != null) {
+            vertex.error = (String) update.get("error");
+            logger.error("{}: {}", vertex.name, vertex.error);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.gradle.api.Task;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Collects the timings of the image build phases of all projects, such as layer extraction and each
+ * BuildKit step, and writes them as one JSON and HTML report when the build finishes. A summary
+ * of each build is also appended to a history file, so that timings can be tracked over time.
+ */
+public abstract class BuildTimingService implements BuildService<BuildTimingService.Params>, AutoCloseable {
+
+    static final String SERVICE_NAME = "simpleBootImageTimings";
+
+    public interface Params extends BuildServiceParameters {
+
+        DirectoryProperty getReportDirectory();
+    }
+
+    /**
+     * @param cached if the phase was satisfied from a cache, or null when not applicable
+     */
+    record Timing(String task, String phase, long durationMillis, Boolean cached) {
+        Map<String, Object> toMap() {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("task", task);
+            map.put("phase", phase);
+            map.put("durationMillis", durationMillis);
+            map.put("cached", cached);
+            return map;
+        }
+    }
+
+    private final List<Timing> timings = new ArrayList<>();
+    private final Instant started = Instant.now();
+
+    synchronized void record(String task, String phase, Duration duration, Boolean cached) {
+        timings.add(new Timing(task, phase, duration.toMillis(), cached));
+    }
+
+    /**
+     * Records the time since {@code startedNanos}, if the task was given the service.
+     */
+    static void record(Property<BuildTimingService> service, Task task, String phase, long startedNanos) {
+        if (service.isPresent()) {
+            service.get().record(task.getPath(), phase, Duration.ofNanos(System.nanoTime() - startedNanos), null);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (timings.isEmpty()) {
+            return;
+        }
+        final Path reportDir = getParameters().getReportDirectory().get().getAsFile().toPath();
+        Files.createDirectories(reportDir);
+
+        final List<Map<String, Object>> entries = timings.stream().map(Timing::toMap).toList();
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("started", started.toString());
+        report.put("timings", entries);
+        Files.writeString(reportDir.resolve("timings.json"), JsonOutput.prettyPrint(JsonOutput.toJson(report)));
+        Files.writeString(reportDir.resolve("timings.html"), renderHtml());
+
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("started", started.toString());
+        summary.put("taskMillis", totalsByTask());
+        summary.put("cachedSteps", timings.stream().filter(timing -> Boolean.TRUE.equals(timing.cached())).count());
+        summary.put("uncachedSteps", timings.stream().filter(timing -> Boolean.FALSE.equals(timing.cached())).count());
+        Files.writeString(reportDir.resolve("timings-history.jsonl"), JsonOutput.toJson(summary) + "\n",
+            StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+        );
+    }
+
+    /**
+     * @return the duration of each task's own phases, excluding the BuildKit steps within them
+     */
+    private Map<String, Long> totalsByTask() {
+        final Map<String, Long> totals = new TreeMap<>();
+        for (final Timing timing : timings) {
+            if (timing.cached() == null) {
+                totals.merge(timing.task(), timing.durationMillis(), Long::sum);
+            }
+        }
+        return totals;
+    }
+
+    private String renderHtml() {
+        final StringBuilder html = new StringBuilder()
+            .append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Simple boot image timings</title>")
+            .append("<style>body{font-family:sans-serif}td,th{padding:2px 8px;text-align:left}")
+            .append("td.ms{text-align:right}tr.miss{background:#fee}</style></head><body>\n")
+            .append("<h1>Simple boot image timings</h1>\n<p>Build started ").append(started).append("</p>\n")
+            .append("<table><tr><th>Task</th><th>Phase</th><th>Duration (ms)</th><th>Cached</th></tr>\n");
+        timings.stream()
+            .sorted(Comparator.comparing(Timing::task))
+            .forEach(timing -> html
+                .append(Boolean.FALSE.equals(timing.cached()) ? "<tr class=\"miss\">" : "<tr>")
+                .append("<td>").append(escape(timing.task())).append("</td>")
+                .append("<td>").append(escape(timing.phase())).append("</td>")
+                .append("<td class=\"ms\">").append(timing.durationMillis()).append("</td>")
+                .append("<td>").append(timing.cached() == null ? "" : timing.cached() ? "yes" : "no").append("</td>")
+                .append("</tr>\n")
+            );
+        return html.append("</table></body></html>\n").toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
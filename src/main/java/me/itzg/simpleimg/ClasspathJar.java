@@ -0,0 +1,196 @@
+package me.itzg.simpleimg;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the application's classes and resources from a boot jar's {@code BOOT-INF/classes} into a
+ * plain jar whose manifest names the application's {@code Start-Class} as its {@code Main-Class} and
+ * lists the dependency jars of {@code BOOT-INF/lib} as its {@code Class-Path}. Launching that jar
+ * bypasses Spring Boot's {@code JarLauncher} and its class loader, and since the classpath only
+ * consists of jars, all of it can be included in a class data sharing archive.
+ * <p>
+ * Entries are stored uncompressed, since the image layer is compressed anyway, and keep the times of
+ * the boot jar's entries, so the jar is identical when the application hasn't changed.
+ */
+class ClasspathJar {
+
+    static final String LAUNCHER_MODE = "launcher";
+    static final String CLASSPATH_MODE = "classpath";
+
+    static final String FILE_NAME = "application.jar";
+    static final String CLASSES_PREFIX = "BOOT-INF/classes/";
+
+    private static final String LIB_PREFIX = "BOOT-INF/lib/";
+    private static final String CLASSPATH_INDEX = "BOOT-INF/classpath.idx";
+    private static final Pattern INDEX_LINE = Pattern.compile("- \"(.+)\"");
+    // 1980-02-01, same as Gradle's reproducible archives
+    private static final long MANIFEST_TIME = 318211200000L;
+
+    /**
+     * @return true if the given launch mode is {@value #CLASSPATH_MODE}
+     */
+    static boolean isClasspathMode(String launchMode) {
+        if (!launchMode.equals(LAUNCHER_MODE) && !launchMode.equals(CLASSPATH_MODE)) {
+            throw new IllegalArgumentException("Launch mode must be " + LAUNCHER_MODE + " or " + CLASSPATH_MODE);
+        }
+        return launchMode.equals(CLASSPATH_MODE);
+    }
+
+    /**
+     * @return true if the target was written, or false if it already had the same content
+     */
+    static boolean write(ZipFile bootJar, Path target) throws IOException {
+        final Path tempFile = Files.createTempFile(target.getParent(), FILE_NAME, ".tmp");
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                writeEntries(bootJar, out);
+            }
+            if (Files.isRegularFile(target) && Files.mismatch(tempFile, target) == -1) {
+                return false;
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void writeEntries(ZipFile bootJar, ZipOutputStream out) throws IOException {
+        final Set<String> written = new HashSet<>();
+        putStored(out, new ZipEntry("META-INF/"), new byte[0], MANIFEST_TIME);
+        putStored(out, new ZipEntry(JarFile.MANIFEST_NAME), manifest(bootJar), MANIFEST_TIME);
+        written.add("META-INF/");
+        written.add(JarFile.MANIFEST_NAME);
+
+        for (final ZipEntry source : Collections.list(bootJar.entries())) {
+            if (!source.getName().startsWith(CLASSES_PREFIX) || source.getName().equals(CLASSES_PREFIX)) {
+                continue;
+            }
+            final String name = source.getName().substring(CLASSES_PREFIX.length());
+            if (!written.add(name)) {
+                continue;
+            }
+
+            final ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(source.isDirectory() ? 0 : source.getSize());
+            entry.setCompressedSize(entry.getSize());
+            entry.setCrc(source.isDirectory() ? 0 : source.getCrc());
+            if (source.getTime() >= 0) {
+                entry.setTime(source.getTime());
+            }
+            out.putNextEntry(entry);
+            if (!source.isDirectory()) {
+                try (InputStream in = bootJar.getInputStream(source)) {
+                    in.transferTo(out);
+                }
+            }
+            out.closeEntry();
+        }
+    }
+
+    private static byte[] manifest(ZipFile bootJar) throws IOException {
+        final ZipEntry bootManifestEntry = bootJar.getEntry(JarFile.MANIFEST_NAME);
+        if (bootManifestEntry == null) {
+            throw new IOException("Boot jar does not contain " + JarFile.MANIFEST_NAME);
+        }
+        final Manifest bootManifest;
+        try (InputStream in = bootJar.getInputStream(bootManifestEntry)) {
+            bootManifest = new Manifest(in);
+        }
+        final String startClass = bootManifest.getMainAttributes().getValue("Start-Class");
+        if (startClass == null) {
+            throw new IOException("Boot jar manifest does not declare a Start-Class");
+        }
+
+        final Manifest manifest = new Manifest();
+        final Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.MAIN_CLASS, startClass);
+        final List<String> classpath = new ArrayList<>();
+        for (final String jar : classpath(bootJar)) {
+            classpath.add(toRelativeUrl(jar));
+        }
+        if (!classpath.isEmpty()) {
+            attributes.put(Attributes.Name.CLASS_PATH, String.join(" ", classpath));
+        }
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        manifest.write(content);
+        return content.toByteArray();
+    }
+
+    /**
+     * @return the dependency jars in the order of the classpath index, or of the boot jar when it has none
+     */
+    static List<String> classpath(ZipFile bootJar) throws IOException {
+        final List<String> jars = new ArrayList<>();
+        final ZipEntry index = bootJar.getEntry(CLASSPATH_INDEX);
+        if (index != null) {
+            try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(bootJar.getInputStream(index), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Matcher matcher = INDEX_LINE.matcher(line.trim());
+                    if (matcher.matches()) {
+                        jars.add(matcher.group(1));
+                    }
+                }
+            }
+            return jars;
+        }
+
+        for (final ZipEntry entry : Collections.list(bootJar.entries())) {
+            if (entry.getName().startsWith(LIB_PREFIX) && entry.getName().endsWith(".jar")) {
+                jars.add(entry.getName());
+            }
+        }
+        return jars;
+    }
+
+    private static String toRelativeUrl(String path) {
+        try {
+            return new URI(null, null, path, null).getRawPath();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid classpath entry: " + path, e);
+        }
+    }
+
+    private static void putStored(ZipOutputStream out, ZipEntry entry, byte[] content, long time) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+        entry.setTime(time);
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+}
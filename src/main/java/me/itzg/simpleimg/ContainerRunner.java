@@ -0,0 +1,44 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Starts the containers measured by {@code benchmarkSimpleBootImageStartup}. The default runs them with
+ * the Docker CLI, and {@link ProcessContainerRunner} stands in for it by running a local command, such
+ * as when no Docker daemon is available.
+ */
+public interface ContainerRunner {
+
+    /**
+     * @param image the image to run, or {@code null} when this runner doesn't {@linkplain #requiresImage() require} one
+     * @param port a port of the container to publish on the same port of localhost, or {@code null}
+     */
+    Container start(String image, Integer port) throws IOException;
+
+    /**
+     * @return true if the image needs to be built before it can be started
+     */
+    default boolean requiresImage() {
+        return true;
+    }
+
+    interface Container extends AutoCloseable {
+
+        /**
+         * @return the standard output and error of the container combined, which ends when it exits
+         */
+        InputStream getOutput();
+
+        /**
+         * @return the peak resident set size, in bytes, of the container's main process, or -1 if unavailable
+         */
+        long peakRssBytes() throws IOException;
+
+        /**
+         * Stops and removes the container.
+         */
+        @Override
+        void close() throws IOException;
+    }
+}
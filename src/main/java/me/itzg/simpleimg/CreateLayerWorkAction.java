@@ -0,0 +1,92 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Creates the compressed blob of one {@code COPY} layer, so that the layers of an image can be
+ * packaged concurrently via Gradle's worker API. The resulting descriptor is written to the
+ * result file since work actions can't return values.
+ */
+public abstract class CreateLayerWorkAction implements WorkAction<CreateLayerWorkAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+
+        DirectoryProperty getOciLayoutDirectory();
+
+        DirectoryProperty getContextDirectory();
+
+        ListProperty<String> getSources();
+
+        Property<String> getDestination();
+
+        DirectoryProperty getLayerCacheDirectory();
+
+        Property<Integer> getLayerCacheMaxSizeMb();
+
+        Property<Integer> getCompressionLevel();
+
+        RegularFileProperty getResultFile();
+    }
+
+    @Override
+    public void execute() {
+        final Parameters parameters = getParameters();
+        final OciLayout layout = new OciLayout(parameters.getOciLayoutDirectory().get().getAsFile().toPath());
+        final Path contextDir = parameters.getContextDirectory().get().getAsFile().toPath();
+        final DockerfileSpec.Copy copy = new DockerfileSpec.Copy(
+            parameters.getSources().get(), parameters.getDestination().get(), null
+        );
+        final OciLayout.TarContent content = tarWriter -> AssembleImageTask.addCopy(tarWriter, contextDir, copy);
+        final int compressionLevel = parameters.getCompressionLevel().get();
+
+        try {
+            final OciLayout.Layer layer = parameters.getLayerCacheMaxSizeMb().get() > 0 ?
+                new LayerBlobCache(parameters.getLayerCacheDirectory().get().getAsFile().toPath(),
+                    parameters.getLayerCacheMaxSizeMb().get() * 1024L * 1024L
+                ).getOrCreate(layout, content, compressionLevel)
+                : layout.writeLayer(content, compressionLevel);
+
+            writeResult(parameters.getResultFile().get().getAsFile().toPath(), layer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create layer for " + copy.sources(), e);
+        }
+    }
+
+    static void writeResult(Path resultFile, OciLayout.Layer layer) throws IOException {
+        final Properties result = new Properties();
+        result.setProperty("mediaType", layer.descriptor().mediaType());
+        result.setProperty("digest", layer.descriptor().digest());
+        result.setProperty("size", Long.toString(layer.descriptor().size()));
+        result.setProperty("diffId", layer.diffId());
+        try (OutputStream out = Files.newOutputStream(resultFile)) {
+            result.store(out, null);
+        }
+    }
+
+    static OciLayout.Layer readResult(Path resultFile) throws IOException {
+        final Properties result = new Properties();
+        try (InputStream in = Files.newInputStream(resultFile)) {
+            result.load(in);
+        }
+        return new OciLayout.Layer(
+            new OciLayout.Descriptor(
+                result.getProperty("mediaType"),
+                result.getProperty("digest"),
+                Long.parseLong(result.getProperty("size"))
+            ),
+            result.getProperty("diffId")
+        );
+    }
+}
@@ -3,4 +3,10 @@ package me.itzg.simpleimg;
 public class Defaults {
     public static final String DEFAULT_BASE_IMAGE = "eclipse-temurin:21";
     public static final int DEFAULT_EXPOSE_PORT = 8080;
+    public static final int DEFAULT_LAYER_CACHE_MAX_SIZE_MB = 2048;
+    public static final int DEFAULT_DEPENDENCY_STORE_MAX_SIZE_MB = 4096;
+    public static final int DEFAULT_PUSH_PARALLELISM = 4;
+    public static final int DEFAULT_MANAGED_CACHE_MAX_SIZE_MB = 10240;
+    public static final int DEFAULT_MANAGED_CACHE_MAX_AGE_DAYS = 14;
+    public static final int DEFAULT_BASE_IMAGE_RESOLUTION_TTL_MINUTES = 60;
 }
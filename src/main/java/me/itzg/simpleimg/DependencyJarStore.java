@@ -0,0 +1,174 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * A content-addressed store of the dependency jars nested in boot jars, shared across builds, so that
+ * extracting a dependency that was extracted before is a hard link rather than another copy of it.
+ * <p>
+ * Entries are keyed by the name, size, CRC, and time recorded in the boot jar's central directory, so
+ * the key is known without reading the jar's content. The time is part of the key since it becomes the
+ * modified time of the extracted file, which is shared by every link to the entry.
+ * <p>
+ * Entries are evicted least recently used first once the total size of the stored jars exceeds the
+ * configured maximum. Evicting an entry doesn't affect the layers it was linked into.
+ */
+class DependencyJarStore {
+
+    private static final Logger logger = Logging.getLogger(DependencyJarStore.class);
+
+    static final String DEPENDENCIES_PREFIX = "BOOT-INF/lib/";
+
+    private static final String JAR_SUFFIX = ".jar";
+    private static final String METADATA_SUFFIX = ".properties";
+
+    private final Path directory;
+    private final long maxSizeBytes;
+
+    DependencyJarStore(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * @return true if the entry is a dependency jar whose central directory record can key the store
+     */
+    static boolean accepts(ZipEntry entry) {
+        return entry.getName().startsWith(DEPENDENCIES_PREFIX) && entry.getName().endsWith(JAR_SUFFIX)
+            && entry.getSize() >= 0 && entry.getCrc() >= 0 && entry.getTime() >= 0;
+    }
+
+    /**
+     * @return true if the target is already a link to the stored entry, which avoids reading it to compare
+     */
+    boolean isLinked(ZipEntry entry, Path target) throws IOException {
+        final Path jarFile = jarFile(key(entry));
+        if (!Files.isRegularFile(jarFile) || !Files.isSameFile(jarFile, target)) {
+            return false;
+        }
+        markUsed(key(entry));
+        return true;
+    }
+
+    /**
+     * Places the dependency jar at the target, storing it first if it isn't already.
+     */
+    void place(ZipFile zipFile, ZipEntry entry, Path target) throws IOException {
+        final String key = key(entry);
+        final Path jarFile = jarFile(key);
+
+        if (Files.isRegularFile(jarFile) && Files.size(jarFile) == entry.getSize()) {
+            logger.debug("Linking stored dependency jar {} for {}", jarFile, entry.getName());
+            markUsed(key);
+        }
+        else {
+            store(zipFile, entry, key);
+        }
+
+        try {
+            FileLinking.linkOrCopy(jarFile, target);
+        } catch (NoSuchFileException e) {
+            // evicted by a concurrent build
+            logger.debug("Extracting {} since its stored jar was evicted", entry.getName());
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private void store(ZipFile zipFile, ZipEntry entry, String key) throws IOException {
+        Files.createDirectories(directory);
+
+        // stage then move into place, so concurrent builds only ever see complete entries
+        final Path tempJar = directory.resolve(key + "-" + UUID.randomUUID() + ".tmp");
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            Files.copy(in, tempJar);
+        }
+        Files.setLastModifiedTime(tempJar, FileTime.fromMillis(entry.getTime()));
+        Files.move(tempJar, jarFile(key), StandardCopyOption.REPLACE_EXISTING);
+
+        final Properties metadata = new Properties();
+        metadata.setProperty("name", entry.getName());
+        metadata.setProperty("size", Long.toString(entry.getSize()));
+        metadata.setProperty("crc", Long.toHexString(entry.getCrc()));
+        final Path tempMetadata = Files.createTempFile(directory, key, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempMetadata)) {
+            metadata.store(out, null);
+        }
+        Files.move(tempMetadata, directory.resolve(key + METADATA_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    void evict() throws IOException {
+        record Entry(Path metadataFile, Path jarFile, FileTime lastUsed, long size) {
+        }
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        final List<Entry> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (final Path metadataFile : paths.filter(path -> path.toString().endsWith(METADATA_SUFFIX)).toList()) {
+                final String fileName = metadataFile.getFileName().toString();
+                final Path jarFile = jarFile(fileName.substring(0, fileName.length() - METADATA_SUFFIX.length()));
+                final long size = Files.exists(jarFile) ? Files.size(jarFile) : 0;
+                entries.add(new Entry(metadataFile, jarFile, Files.getLastModifiedTime(metadataFile), size));
+                totalSize += size;
+            }
+        }
+
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+        for (final Entry entry : entries) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            logger.debug("Evicting stored dependency jar {}", entry.jarFile());
+            Files.deleteIfExists(entry.metadataFile());
+            Files.deleteIfExists(entry.jarFile());
+            totalSize -= entry.size();
+        }
+    }
+
+    /**
+     * The jar's own modified time is its entry time, so recent use is tracked by its metadata file.
+     */
+    private void markUsed(String key) throws IOException {
+        try {
+            Files.setLastModifiedTime(directory.resolve(key + METADATA_SUFFIX), FileTime.from(Instant.now()));
+        } catch (NoSuchFileException e) {
+            // evicted by a concurrent build, which is recovered from when placing
+        }
+    }
+
+    private Path jarFile(String key) {
+        return directory.resolve(key + JAR_SUFFIX);
+    }
+
+    private static String key(ZipEntry entry) {
+        final String fileName = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+        return Digests.hex(Digests.sha256(
+            String.join("\n", fileName, Long.toString(entry.getSize()), Long.toHexString(entry.getCrc()),
+                Long.toString(entry.getTime())
+            ).getBytes(StandardCharsets.UTF_8)
+        ));
+    }
+}
@@ -0,0 +1,70 @@
+package me.itzg.simpleimg;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.Named;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * An additional layer that dependencies are split into, ahead of Spring Boot's catch-all
+ * {@code dependencies} layer, so that a change to one group of dependencies only invalidates
+ * that group's image layer.
+ */
+abstract public class DependencyLayer implements Named {
+
+    static final String DEPENDENCIES = "dependencies";
+    static final String SPRING_BOOT_LOADER = "spring-boot-loader";
+    static final String SNAPSHOT_DEPENDENCIES = "snapshot-dependencies";
+    static final String APPLICATION = "application";
+
+    private static final List<String> STANDARD_LAYERS = List.of(
+        DEPENDENCIES, SPRING_BOOT_LOADER, SNAPSHOT_DEPENDENCIES, APPLICATION
+    );
+
+    private final String name;
+
+    /**
+     * Patterns of {@code group:artifact[:version]} coordinates, where {@code *} is a wildcard,
+     * such as {@code com.example.*:*}
+     */
+    abstract ListProperty<String> getIncludes();
+
+    abstract ListProperty<String> getExcludes();
+
+    /**
+     * Indicates if the jars of other projects in the build are placed in this layer
+     */
+    abstract Property<Boolean> getIncludeProjectDependencies();
+
+    @Inject
+    public DependencyLayer(String name) {
+        if (STANDARD_LAYERS.contains(name) || !name.matches("[a-zA-Z0-9][a-zA-Z0-9._-]*")) {
+            throw new IllegalArgumentException("Invalid dependency layer name: " + name);
+        }
+        this.name = name;
+        getIncludeProjectDependencies().convention(false);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return all layer names in the order they are added to the image, which places the given
+     * dependency layers after the rarely changing {@code dependencies} layer and before the rest
+     */
+    static List<String> layerOrder(List<DependencyLayer> dependencyLayers) {
+        final List<String> order = new ArrayList<>();
+        order.add(DEPENDENCIES);
+        for (final DependencyLayer dependencyLayer : dependencyLayers) {
+            order.add(dependencyLayer.getName());
+        }
+        order.add(SPRING_BOOT_LOADER);
+        order.add(SNAPSHOT_DEPENDENCIES);
+        order.add(APPLICATION);
+        return order;
+    }
+}
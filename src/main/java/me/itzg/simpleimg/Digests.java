@@ -0,0 +1,55 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Helpers for the {@code sha256:<hex>} digests used to address image content.
+ */
+class Digests {
+
+    static final String SHA256_PREFIX = "sha256:";
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 should always be supported", e);
+        }
+    }
+
+    static String sha256(byte[] content) {
+        final MessageDigest digest = newSha256();
+        digest.update(content);
+        return format(digest);
+    }
+
+    static String sha256(Path file) throws IOException {
+        final MessageDigest digest = newSha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return format(digest);
+    }
+
+    static String format(MessageDigest digest) {
+        return SHA256_PREFIX + HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return the hex portion of a {@code sha256:<hex>} digest, as used for blob file names
+     */
+    static String hex(String digest) {
+        if (!digest.startsWith(SHA256_PREFIX)) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + digest);
+        }
+        return digest.substring(SHA256_PREFIX.length());
+    }
+}
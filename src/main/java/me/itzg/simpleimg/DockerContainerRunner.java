@@ -0,0 +1,75 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs containers attached to the Docker CLI, so that their output is the output of {@code docker run}.
+ */
+public class DockerContainerRunner implements ContainerRunner {
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    @Override
+    public Container start(String image, Integer port) throws IOException {
+        final String name = "simple-boot-image-startup-" + UUID.randomUUID();
+        final List<String> command = new ArrayList<>(List.of("docker", "run", "--rm", "--name", name));
+        if (port != null) {
+            command.add("--publish");
+            command.add("127.0.0.1:" + port + ":" + port);
+        }
+        command.add(image);
+
+        final Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .start();
+        return new Container() {
+            @Override
+            public InputStream getOutput() {
+                return process.getInputStream();
+            }
+
+            @Override
+            public long peakRssBytes() throws IOException {
+                // the entrypoint runs java as the container's first process
+                final Process exec = new ProcessBuilder("docker", "exec", name, "cat", "/proc/1/status")
+                    .redirectErrorStream(true)
+                    .start();
+                final String status = new String(exec.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                return waitFor(exec) == 0 ? ProcessContainerRunner.parsePeakRss(status) : -1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                final Process remove = new ProcessBuilder("docker", "rm", "--force", name)
+                    .redirectErrorStream(true)
+                    .start();
+                remove.getInputStream().transferTo(OutputStream.nullOutputStream());
+                waitFor(remove);
+                try {
+                    if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroyForcibly();
+                }
+            }
+        };
+    }
+
+    private static int waitFor(Process process) throws IOException {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for docker", e);
+        }
+    }
+}
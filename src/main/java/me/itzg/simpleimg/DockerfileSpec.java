@@ -0,0 +1,169 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonSlurper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Interprets the subset of Dockerfile instructions produced by this plugin's Dockerfile generators,
+ * so that images can be assembled without a Docker daemon while staying consistent with
+ * {@code docker build} of the same Dockerfile.
+ */
+class DockerfileSpec {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{(\\w+)}|\\$(\\w+)");
+
+    /**
+     * @param sources paths relative to the build context
+     * @param destination absolute path within the image, which ends with a slash when it is a directory
+     * @param instruction the original instruction, for the image history
+     */
+    record Copy(List<String> sources, String destination, String instruction) {
+    }
+
+    private String baseImage;
+    private String workingDir = "/";
+    private final List<String> exposedPorts = new ArrayList<>();
+    private final Map<String, String> env = new LinkedHashMap<>();
+    private List<String> entrypoint;
+    private final List<Copy> copies = new ArrayList<>();
+    private final List<String> unsupported = new ArrayList<>();
+
+    static DockerfileSpec parse(Path dockerfile, Map<String, String> buildArgs) throws IOException {
+        return parse(Files.readAllLines(dockerfile), buildArgs);
+    }
+
+    static DockerfileSpec parse(List<String> lines, Map<String, String> buildArgs) {
+        final DockerfileSpec spec = new DockerfileSpec();
+        final Map<String, String> variables = new HashMap<>();
+
+        for (final String rawLine : lines) {
+            final String line = rawLine.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] parts = line.split("\\s+", 2);
+            final String keyword = parts[0].toUpperCase();
+            final String args = parts.length > 1 ? substitute(parts[1], variables) : "";
+
+            switch (keyword) {
+                case "ARG" -> {
+                    final String[] nameValue = parts[1].split("=", 2);
+                    variables.put(nameValue[0],
+                        buildArgs.getOrDefault(nameValue[0], nameValue.length > 1 ? nameValue[1] : "")
+                    );
+                }
+                case "FROM" -> spec.baseImage = args.split("\\s+")[0];
+                case "EXPOSE" -> spec.exposedPorts.addAll(Arrays.asList(args.split("\\s+")));
+                case "WORKDIR" -> spec.workingDir = spec.resolve(args);
+                case "ENV" -> {
+                    final String[] nameValue = args.split("[=\\s]", 2);
+                    spec.env.put(nameValue[0], nameValue.length > 1 ? unquote(nameValue[1].trim()) : "");
+                }
+                case "COPY" -> spec.addCopy(args, line);
+                case "ENTRYPOINT" -> spec.entrypoint = parseCommand(args);
+                case "RUN" -> {
+                    // no-op used only as a workaround for the classic builder
+                    if (!args.equals("true")) {
+                        spec.unsupported.add(line);
+                    }
+                }
+                default -> spec.unsupported.add(line);
+            }
+        }
+        return spec;
+    }
+
+    private void addCopy(String args, String line) {
+        final List<String> tokens = new ArrayList<>(Arrays.asList(args.split("\\s+")));
+        if (tokens.stream().anyMatch(token -> token.startsWith("--") && !token.equals("--link"))) {
+            unsupported.add(line);
+            return;
+        }
+        tokens.remove("--link");
+        if (tokens.size() < 2) {
+            unsupported.add(line);
+            return;
+        }
+        final String destination = tokens.get(tokens.size() - 1);
+        final String resolved = resolve(destination);
+        // same as docker, the destination is a directory when it ends with a slash or has multiple sources
+        final boolean directory = destination.endsWith("/") || destination.equals(".") || tokens.size() > 2;
+        copies.add(new Copy(
+            List.copyOf(tokens.subList(0, tokens.size() - 1)),
+            directory && !resolved.endsWith("/") ? resolved + "/" : resolved,
+            line
+        ));
+    }
+
+    private String resolve(String path) {
+        final String combined = path.startsWith("/") ? path
+            : (workingDir.endsWith("/") ? workingDir : workingDir + "/") + path;
+        final String normalized = Path.of(combined).normalize().toString().replace('\\', '/');
+        return normalized.isEmpty() ? "/" : normalized;
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"") ?
+            value.substring(1, value.length() - 1) : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> parseCommand(String args) {
+        if (args.startsWith("[")) {
+            return List.copyOf((List<String>) new JsonSlurper().parseText(args));
+        }
+        return List.of("/bin/sh", "-c", args);
+    }
+
+    private static String substitute(String value, Map<String, String> variables) {
+        final Matcher matcher = VARIABLE.matcher(value);
+        final StringBuilder result = new StringBuilder();
+        while (matcher.find()) {
+            final String name = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            matcher.appendReplacement(result, Matcher.quoteReplacement(variables.getOrDefault(name, "")));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    String getBaseImage() {
+        return baseImage;
+    }
+
+    String getWorkingDir() {
+        return workingDir;
+    }
+
+    List<String> getExposedPorts() {
+        return exposedPorts;
+    }
+
+    Map<String, String> getEnv() {
+        return env;
+    }
+
+    List<String> getEntrypoint() {
+        return entrypoint;
+    }
+
+    List<Copy> getCopies() {
+        return copies;
+    }
+
+    /**
+     * @return instructions that can't be applied without running a container, such as {@code RUN}
+     */
+    List<String> getUnsupported() {
+        return unsupported;
+    }
+}
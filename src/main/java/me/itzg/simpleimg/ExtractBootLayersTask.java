@@ -2,11 +2,18 @@ package me.itzg.simpleimg;
 
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 import org.gradle.process.ExecOperations;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
 
 @CacheableTask
 public abstract class ExtractBootLayersTask extends DefaultTask {
@@ -18,14 +25,85 @@ public abstract class ExtractBootLayersTask extends DefaultTask {
     @OutputDirectory
     abstract DirectoryProperty getLayersDirectory();
 
+    /**
+     * When enabled, only the files that differ from the jar's entries are re-written or deleted.
+     */
+    @Input
+    abstract Property<Boolean> getIncremental();
+
+    /**
+     * For the classpath launch mode, the application's classes are written to a jar that launches them
+     */
+    @Input
+    abstract Property<String> getLaunchMode();
+
+    /**
+     * Where dependency jars are stored to be hard-linked into the layers, shared across builds
+     */
+    @Internal
+    abstract DirectoryProperty getDependencyStoreDirectory();
+
+    /**
+     * Zero disables the store
+     */
+    @Internal
+    abstract Property<Integer> getDependencyStoreMaxSizeMb();
+
+    /**
+     * Present when timings of the image build phases are being reported
+     */
+    @Internal
+    abstract Property<BuildTimingService> getTimingService();
+
     @Inject
     protected abstract ExecOperations getExecOperations();
 
+    @Inject
+    protected abstract FileSystemOperations getFileSystemOperations();
+
+    void apply(SharedProperties sharedProperties) {
+        getIncremental().set(sharedProperties.getIncrementalExtraction());
+        getDependencyStoreMaxSizeMb().set(sharedProperties.getDependencyStoreMaxSizeMb());
+        getLaunchMode().set(sharedProperties.getLaunchMode());
+    }
+
     @TaskAction
-    void extract() {
-        // Cleanup from previous run, if needed
-        getProject().delete(getLayersDirectory());
-        getProject().mkdir(getLayersDirectory());
+    void extract() throws IOException {
+        final long started = System.nanoTime();
+        try {
+            extractLayers();
+        } finally {
+            BuildTimingService.record(getTimingService(), this, "extract layers", started);
+        }
+    }
+
+    private void extractLayers() throws IOException {
+        final boolean classpathJar = ClasspathJar.isClasspathMode(getLaunchMode().get());
+        if (!getIncremental().get()) {
+            // Cleanup from previous run, if needed
+            cleanLayersDirectory();
+        }
+
+        try {
+            final DependencyJarStore dependencyJarStore = getDependencyStoreMaxSizeMb().get() > 0 ?
+                new DependencyJarStore(getDependencyStoreDirectory().get().getAsFile().toPath(),
+                    getDependencyStoreMaxSizeMb().get() * 1024L * 1024L
+                )
+                : null;
+            final BootLayersExtractor.Result result = new BootLayersExtractor(
+                getBootJar().get().getAsFile().toPath(), dependencyJarStore, classpathJar
+            )
+                .extract(getLayersDirectory().get().getAsFile().toPath(), getIncremental().get());
+            getLogger().info("Extracted layers: {} written, {} unchanged, {} deleted",
+                result.written(), result.unchanged(), result.deleted()
+            );
+            return;
+        } catch (BootLayersExtractor.UnsupportedJarException e) {
+            getLogger().info("Falling back to jarmode=tools extraction: {}", e.getMessage());
+        }
+
+        // Cleanup previous or partial, in-process extraction
+        cleanLayersDirectory();
 
         getExecOperations()
             .javaexec(spec -> {
@@ -35,6 +113,32 @@ public abstract class ExtractBootLayersTask extends DefaultTask {
                 spec.workingDir(getLayersDirectory());
             })
             .assertNormalExitValue();
+
+        if (classpathJar) {
+            replaceClassesWithJar();
+        }
+    }
+
+    /**
+     * Replaces the classes extracted by the jarmode tooling with a {@link ClasspathJar} in the same layer.
+     */
+    private void replaceClassesWithJar() throws IOException {
+        final Path layersDirectory = getLayersDirectory().get().getAsFile().toPath();
+        try (ZipFile zipFile = new ZipFile(getBootJar().get().getAsFile());
+             Stream<Path> layers = Files.list(layersDirectory)) {
+            for (final Path layer : layers.toList()) {
+                final Path classes = layer.resolve(ClasspathJar.CLASSES_PREFIX);
+                if (Files.isDirectory(classes)) {
+                    ClasspathJar.write(zipFile, layer.resolve(ClasspathJar.FILE_NAME));
+                    getFileSystemOperations().delete(spec -> spec.delete(classes.toFile()));
+                }
+            }
+        }
+    }
+
+    private void cleanLayersDirectory() throws IOException {
+        getFileSystemOperations().delete(spec -> spec.delete(getLayersDirectory()));
+        Files.createDirectories(getLayersDirectory().get().getAsFile().toPath());
     }
 
 }
@@ -0,0 +1,28 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Places files by hard-linking when source and target are on the same filesystem, which avoids
+ * re-writing their content, and falls back to copying otherwise. On recent JDKs, that copy is itself
+ * a reflink on filesystems that support one, such as Btrfs, XFS, and APFS, since {@link Files#copy}
+ * uses {@code copy_file_range} on Linux and {@code clonefile} on macOS.
+ */
+class FileLinking {
+
+    /**
+     * The target must not be modified in place afterward, since it may share its content with the source.
+     */
+    static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
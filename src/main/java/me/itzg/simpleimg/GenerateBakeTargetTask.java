@@ -0,0 +1,145 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Describes this project's image build as a target of a
+ * <a href="https://docs.docker.com/build/bake/">buildx bake</a> file, which is published to
+ * {@link BakeImagesTask} so that the images of many projects are built by one bake invocation.
+ */
+@DisableCachingByDefault(because = "The target refers to the context and managed cache by their absolute paths on this machine")
+public abstract class GenerateBakeTargetTask extends ImageBuildingTask {
+
+    private static final String DEPENDENCIES_LAYER = "layers/" + DependencyLayer.DEPENDENCIES;
+
+    /**
+     * Unique across the build, such as derived from the project path
+     */
+    @Input
+    abstract Property<String> getTargetName();
+
+    @Input
+    abstract Property<Boolean> getPush();
+
+    @Input
+    abstract Property<Boolean> getPullForBuild();
+
+    @Optional
+    @Input
+    abstract Property<String> getCacheFrom();
+
+    @Optional
+    @Input
+    abstract Property<String> getCacheTo();
+
+    @Optional
+    @Input
+    abstract ListProperty<String> getPlatforms();
+
+    @Input
+    abstract Property<Boolean> getManagedCache();
+
+    /**
+     * The managed cache of this project, which is resolved to cache imports and exports by the bake task
+     */
+    @Internal
+    abstract DirectoryProperty getManagedCacheDirectory();
+
+    @Input
+    abstract Property<Integer> getManagedCacheMaxSizeMb();
+
+    @Input
+    abstract Property<Integer> getManagedCacheMaxAgeDays();
+
+    @OutputFile
+    abstract RegularFileProperty getTargetFile();
+
+    @Override
+    void apply(SharedProperties sharedProperties) {
+        getPush().set(sharedProperties.getPush());
+        getPullForBuild().set(sharedProperties.getPullForBuild());
+        getCacheFrom().set(sharedProperties.getCacheFrom());
+        getCacheTo().set(sharedProperties.getCacheTo());
+        getPlatforms().set(sharedProperties.getPlatforms());
+        getManagedCache().set(sharedProperties.getManagedCache());
+        getManagedCacheMaxSizeMb().set(sharedProperties.getManagedCacheMaxSizeMb());
+        getManagedCacheMaxAgeDays().set(sharedProperties.getManagedCacheMaxAgeDays());
+
+        super.apply(sharedProperties);
+    }
+
+    @TaskAction
+    void generate() throws IOException {
+        final Map<String, Object> target = new TreeMap<>();
+        target.put("context", getBootImageDirectory().get().getAsFile().getAbsolutePath());
+        target.put("dockerfile", getDockerfile().get().getAsFile().getAbsolutePath());
+        target.put("tags", new ArrayList<>(expandImageTags()));
+        target.put("args", buildArgs());
+        target.put("labels", imageLabels());
+        target.put("pull", getPullForBuild().get() && !isBaseImageLocked());
+        final List<String> output = new ArrayList<>(List.of(getPush().get() ? "type=registry" : "type=docker"));
+        output.addAll(LayerCompression.exporterAttributes(
+            getLayerCompression().get(), getLayerCompressionLevel().getOrNull()
+        ));
+        target.put("output", List.of(String.join(",", output)));
+        if (getPlatforms().isPresent() && !getPlatforms().get().isEmpty()) {
+            target.put("platforms", getPlatforms().get());
+        }
+        if (getCacheFrom().isPresent()) {
+            target.put("cache-from", List.of(getCacheFrom().get()));
+        }
+        if (getCacheTo().isPresent()) {
+            target.put("cache-to", List.of(getCacheTo().get()));
+        }
+        if (getManagedCache().get()) {
+            if (getCacheFrom().isPresent() || getCacheTo().isPresent()) {
+                throw new IllegalArgumentException("managedCache replaces cacheFrom and cacheTo");
+            }
+            target.put(ManagedBuildCache.METADATA_KEY, Map.of(
+                "directory", getManagedCacheDirectory().get().getAsFile().getAbsolutePath(),
+                "maxSizeMb", getManagedCacheMaxSizeMb().get(),
+                "maxAgeDays", getManagedCacheMaxAgeDays().get()
+            ));
+        }
+
+        // allows the bake task to move dependencies shared with other projects into a common base image
+        final Path contextDir = getBootImageDirectory().get().getAsFile().toPath();
+        final boolean copiesDependenciesLayer = DockerfileSpec.parse(getDockerfile().get().getAsFile().toPath(), buildArgs())
+            .getCopies().stream()
+            .anyMatch(copy -> copy.sources().contains(DEPENDENCIES_LAYER + "/"));
+        if (copiesDependenciesLayer) {
+            target.put(SharedDependencies.METADATA_KEY,
+                SharedDependencies.describe(DEPENDENCIES_LAYER, contextDir.resolve(DEPENDENCIES_LAYER))
+            );
+        }
+
+        Files.writeString(getTargetFile().get().getAsFile().toPath(),
+            JsonOutput.toJson(Map.of(getTargetName().get(), target))
+        );
+    }
+
+    /**
+     * @return a bake target name, which may only contain letters, digits, underscores, and dashes
+     */
+    static String targetName(String projectPath) {
+        final String name = projectPath.replaceFirst("^:", "").replaceAll("[^a-zA-Z0-9_-]", "_");
+        return name.isEmpty() ? "root" : name;
+    }
+}
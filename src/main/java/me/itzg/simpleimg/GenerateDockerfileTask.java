@@ -0,0 +1,109 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Common structure of the generated Dockerfiles, where subclasses provide the instructions that
+ * copy in the application and the arguments that launch it.
+ */
+@DisableCachingByDefault(
+    because = "Only the subclass tasks can determine this"
+)
+public abstract class GenerateDockerfileTask extends DefaultTask {
+
+    static final String CDS_ARCHIVE = "application.jsa";
+
+    /**
+     * When enabled, the application is started once during the image build to record a class data
+     * sharing archive of the classes it loads, which is then used by the container's JVM.
+     */
+    @Input
+    abstract Property<Boolean> getClassDataSharing();
+
+    /**
+     * Set as {@code JAVA_TOOL_OPTIONS} in the image, when not empty
+     */
+    @Input
+    abstract ListProperty<String> getJvmOptions();
+
+    /**
+     * Either {@value ClasspathJar#LAUNCHER_MODE}, where Spring Boot's launcher starts the application,
+     * or {@value ClasspathJar#CLASSPATH_MODE}, where its main class is started from a plain classpath
+     */
+    @Input
+    abstract Property<String> getLaunchMode();
+
+    @OutputFile
+    abstract RegularFileProperty getDockerfile();
+
+    void apply(SharedProperties sharedProperties) {
+        getClassDataSharing().set(sharedProperties.getClassDataSharing());
+        getLaunchMode().set(sharedProperties.getLaunchMode());
+        final JvmTuning jvmTuning = sharedProperties.getJvmTuning();
+        getJvmOptions().set(jvmTuning.getProfile().map(profile -> JvmTuning.jvmOptions(
+            jvmTuning.getMemoryLimitMb().getOrNull(), jvmTuning.getCpuLimit().getOrNull(), profile
+        )));
+    }
+
+    /**
+     * @return the instructions that add the application to the image's working directory
+     */
+    abstract List<String> copyInstructions();
+
+    /**
+     * @return the arguments of {@code java} that launch the application
+     */
+    abstract List<String> launchArgs();
+
+    /**
+     * Fails when the classpath of {@link #launchArgs()} can't be archived by the training run, which
+     * would otherwise complete without writing the archive that every container then expects.
+     */
+    void checkClassDataSharing() {
+    }
+
+    void writeDockerfile() throws IOException {
+        final List<String> lines = new ArrayList<>(List.of(
+            // ARG for base image needs a placeholder
+            "ARG BASE_IMG=eclipse-temurin:17",
+            "FROM ${BASE_IMG}",
+            "ARG EXPOSE_PORT",
+            "EXPOSE ${EXPOSE_PORT}",
+            "WORKDIR /application"
+        ));
+        lines.addAll(copyInstructions());
+        if (!getJvmOptions().get().isEmpty()) {
+            // also applies to the training run, so the archive matches the JVM configuration that uses it
+            lines.add("ENV JAVA_TOOL_OPTIONS=\"" + String.join(" ", getJvmOptions().get()) + "\"");
+        }
+
+        final List<String> command = new ArrayList<>();
+        command.add("java");
+        if (getClassDataSharing().get()) {
+            checkClassDataSharing();
+            // training run that exits once the application context is refreshed, which leaves
+            // only the archive in the layer produced by this instruction
+            lines.add("RUN java -XX:ArchiveClassesAtExit=" + CDS_ARCHIVE + " -Dspring.context.exit=onRefresh "
+                + String.join(" ", launchArgs()));
+            command.add("-XX:SharedArchiveFile=" + CDS_ARCHIVE);
+        }
+        command.addAll(launchArgs());
+        lines.add("ENTRYPOINT " + command.stream()
+            .map(arg -> "\"" + arg + "\"")
+            .collect(Collectors.joining(", ", "[", "]"))
+        );
+
+        Files.write(getDockerfile().get().getAsFile().toPath(), lines);
+    }
+}
@@ -1,44 +1,43 @@
 package me.itzg.simpleimg;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.List;
-import org.gradle.api.DefaultTask;
 import org.gradle.api.NonNullApi;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.InputFile;
-import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 
 @CacheableTask
 @NonNullApi
-public abstract class GenerateFatJarDockerfileTask extends DefaultTask {
+public abstract class GenerateFatJarDockerfileTask extends GenerateDockerfileTask {
 
     @InputFile
     @PathSensitive(value = PathSensitivity.RELATIVE)
     abstract RegularFileProperty getStagedJar();
 
-    @OutputFile
-    abstract RegularFileProperty getDockerfile();
+    @Override
+    List<String> copyInstructions() {
+        return List.of("COPY " + bootJarFilename() + " ./");
+    }
+
+    @Override
+    List<String> launchArgs() {
+        if (ClasspathJar.isClasspathMode(getLaunchMode().get())) {
+            throw new IllegalArgumentException("The " + ClasspathJar.CLASSPATH_MODE
+                + " launch mode requires layered images, since the fat jar can only be started by its launcher");
+        }
+        return List.of("-jar", bootJarFilename());
+    }
+
+    private String bootJarFilename() {
+        return getStagedJar().get().getAsFile().getName();
+    }
 
     @TaskAction
     public void generate() throws IOException {
-        final String bootJarFilename = getStagedJar().get().getAsFile().getName();
-
-        Files.write(getDockerfile().get().getAsFile().toPath(),
-            List.of(
-                // ARG for base image needs a placeholder
-                "ARG BASE_IMG=eclipse-temurin:17",
-                "FROM ${BASE_IMG}",
-                "ARG EXPOSE_PORT",
-                "EXPOSE ${EXPOSE_PORT}",
-                "WORKDIR /application",
-                "COPY " + bootJarFilename + " ./",
-                "ENTRYPOINT [\"java\", \"-jar\", \"" + bootJarFilename + "\"]"
-            )
-        );
+        writeDockerfile();
     }
 }
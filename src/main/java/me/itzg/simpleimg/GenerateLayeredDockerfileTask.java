@@ -1,21 +1,19 @@
 package me.itzg.simpleimg;
 
-import org.gradle.api.DefaultTask;
 import org.gradle.api.NonNullApi;
-import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 
 @CacheableTask
 @NonNullApi
-public abstract class GenerateLayeredDockerfileTask extends DefaultTask {
+public abstract class GenerateLayeredDockerfileTask extends GenerateDockerfileTask {
 
     @Input
     abstract Property<Boolean> getUseBuildx();
@@ -23,32 +21,52 @@ public abstract class GenerateLayeredDockerfileTask extends DefaultTask {
     @Input
     abstract Property<String> getLauncherClass();
 
-    @OutputFile
-    abstract RegularFileProperty getDockerfile();
+    /**
+     * The names of the extracted layers in the order they are copied into the image
+     */
+    @Input
+    abstract ListProperty<String> getLayers();
 
+    @Override
     void apply(SharedProperties extension) {
         getUseBuildx().set(extension.getUseBuildx());
+
+        super.apply(extension);
+    }
+
+    @Override
+    List<String> copyInstructions() {
+        final List<String> layers = getLayers().get();
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < layers.size(); i++) {
+            if (i == layers.size() - 1 && !getUseBuildx().get()) {
+                // Workaround of https://github.com/moby/moby/issues/37965
+                lines.add("RUN true");
+            }
+            lines.add(String.format("COPY layers/%s/ ./", layers.get(i)));
+        }
+        return lines;
+    }
+
+    @Override
+    List<String> launchArgs() {
+        if (ClasspathJar.isClasspathMode(getLaunchMode().get())) {
+            return List.of("-jar", ClasspathJar.FILE_NAME);
+        }
+        return List.of(getLauncherClass().get());
+    }
+
+    @Override
+    void checkClassDataSharing() {
+        // the launcher's classpath is the extracted application directory, from which the JVM won't dump an archive
+        if (!ClasspathJar.isClasspathMode(getLaunchMode().get())) {
+            throw new IllegalArgumentException("Class data sharing of layered images requires the "
+                + ClasspathJar.CLASSPATH_MODE + " launch mode, since classes loaded from the extracted layers can't be archived");
+        }
     }
 
     @TaskAction
     public void generate() throws IOException {
-        Files.write(getDockerfile().get().getAsFile().toPath(),
-            List.of(
-                // ARG for base image needs a placeholder
-                "ARG BASE_IMG=eclipse-temurin:17",
-                "FROM ${BASE_IMG}",
-                "ARG EXPOSE_PORT",
-                "EXPOSE ${EXPOSE_PORT}",
-                "WORKDIR /application",
-                "COPY layers/dependencies/ ./",
-                "COPY layers/spring-boot-loader/ ./",
-                "COPY layers/snapshot-dependencies/ ./",
-                getUseBuildx().get() ? "" :
-                    // Workaround of https://github.com/moby/moby/issues/37965
-                    "RUN true",
-                "COPY layers/application/ ./",
-                String.format("ENTRYPOINT [\"java\", \"%s\"]", getLauncherClass().get())
-            )
-        );
+        writeDockerfile();
     }
 }
@@ -0,0 +1,236 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Analyzes the content that goes into an image, either the extracted layers or the staged fat jar,
+ * for the size of each layer, the largest jars, and jars or classes that are included more than once.
+ */
+class ImageAnalyzer {
+
+    static final int LARGEST_JARS = 10;
+    static final int DUPLICATE_CLASS_EXAMPLES = 20;
+
+    /**
+     * Matches a jar file name, such as {@code jackson-databind-2.17.1.jar}, to extract the artifact name
+     */
+    private static final Pattern VERSIONED_JAR = Pattern.compile("(.+?)-\\d[^/]*\\.jar");
+
+    /**
+     * @param checksum the CRC-32 of the content, used to detect changes between analyses
+     */
+    record FileEntry(String layer, String path, long size, long checksum) {
+    }
+
+    private final List<FileEntry> files = new ArrayList<>();
+    // class name to the jars, or classes directory, that contain it
+    private final Map<String, Set<String>> classLocations = new TreeMap<>();
+
+    List<FileEntry> getFiles() {
+        return files;
+    }
+
+    /**
+     * Adds the files of each layer directory within the given extracted layers directory.
+     */
+    void addLayers(Path layersDirectory) throws IOException {
+        try (Stream<Path> layers = Files.list(layersDirectory)) {
+            for (final Path layer : layers.filter(Files::isDirectory).sorted().toList()) {
+                final String layerName = layer.getFileName().toString();
+                try (Stream<Path> layerFiles = Files.walk(layer)) {
+                    for (final Path file : layerFiles.filter(Files::isRegularFile).sorted().toList()) {
+                        final String path = TarWriter.toEntryName(layer.relativize(file));
+                        final CRC32 crc = new CRC32();
+                        try (InputStream in = new CheckedInputStream(Files.newInputStream(file), crc)) {
+                            in.transferTo(OutputStream.nullOutputStream());
+                        }
+                        files.add(new FileEntry(layerName, path, Files.size(file), crc.getValue()));
+
+                        if (path.endsWith(".jar")) {
+                            try (ZipFile jar = new ZipFile(file.toFile())) {
+                                addClasses(path, jar.entries());
+                            }
+                        } else if (path.startsWith("BOOT-INF/classes/")) {
+                            addClass("BOOT-INF/classes", path.substring("BOOT-INF/classes/".length()));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the entries of a fat jar, which is a single layer of the image.
+     */
+    void addFatJar(Path jarFile) throws IOException {
+        final String layerName = jarFile.getFileName().toString();
+        try (ZipFile bootJar = new ZipFile(jarFile.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = bootJar.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                files.add(new FileEntry(layerName, entry.getName(), entry.getSize(), entry.getCrc()));
+
+                if (entry.getName().endsWith(".jar")) {
+                    try (ZipInputStream nested = new ZipInputStream(bootJar.getInputStream(entry))) {
+                        ZipEntry nestedEntry;
+                        while ((nestedEntry = nested.getNextEntry()) != null) {
+                            addClass(entry.getName(), nestedEntry.getName());
+                        }
+                    }
+                } else if (entry.getName().startsWith("BOOT-INF/classes/")) {
+                    addClass("BOOT-INF/classes", entry.getName().substring("BOOT-INF/classes/".length()));
+                }
+            }
+        }
+    }
+
+    private void addClasses(String location, Enumeration<? extends ZipEntry> entries) {
+        while (entries.hasMoreElements()) {
+            addClass(location, entries.nextElement().getName());
+        }
+    }
+
+    private void addClass(String location, String entryName) {
+        if (entryName.endsWith(".class") && !entryName.endsWith("module-info.class")
+            && !entryName.startsWith("META-INF/")) {
+            classLocations.computeIfAbsent(entryName, name -> new TreeSet<>()).add(location);
+        }
+    }
+
+    Map<String, Long> layerSizes() {
+        return files.stream().collect(Collectors.groupingBy(FileEntry::layer, TreeMap::new,
+            Collectors.summingLong(FileEntry::size)
+        ));
+    }
+
+    long totalSize() {
+        return files.stream().mapToLong(FileEntry::size).sum();
+    }
+
+    List<FileEntry> largestJars() {
+        return files.stream()
+            .filter(file -> file.path().endsWith(".jar"))
+            .sorted(Comparator.comparingLong(FileEntry::size).reversed())
+            .limit(LARGEST_JARS)
+            .toList();
+    }
+
+    /**
+     * @return the jars grouped by artifact name, or identical content, where there is more than one
+     */
+    Map<String, List<String>> duplicateJars() {
+        final Map<String, Set<String>> byArtifact = new TreeMap<>();
+        final Map<String, Set<String>> byContent = new TreeMap<>();
+        for (final FileEntry file : files) {
+            if (!file.path().endsWith(".jar")) {
+                continue;
+            }
+            final String fileName = file.path().substring(file.path().lastIndexOf('/') + 1);
+            final Matcher matcher = VERSIONED_JAR.matcher(fileName);
+            if (matcher.matches()) {
+                byArtifact.computeIfAbsent(matcher.group(1), artifact -> new TreeSet<>()).add(file.path());
+            }
+            byContent.computeIfAbsent(file.size() + ":" + Long.toHexString(file.checksum()), key -> new TreeSet<>())
+                .add(file.path());
+        }
+
+        final Map<String, List<String>> duplicates = new TreeMap<>();
+        byArtifact.forEach((artifact, jars) -> {
+            if (jars.size() > 1) {
+                duplicates.put(artifact, List.copyOf(jars));
+            }
+        });
+        byContent.forEach((content, jars) -> {
+            if (jars.size() > 1) {
+                duplicates.put("identical content " + content, List.copyOf(jars));
+            }
+        });
+        return duplicates;
+    }
+
+    /**
+     * @return the classes that are present in more than one jar, or the application classes, and where
+     */
+    Map<String, Set<String>> duplicateClasses() {
+        return classLocations.entrySet().stream()
+            .filter(entry -> entry.getValue().size() > 1)
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+    }
+
+    /**
+     * @return per layer, the state of each file that is compared with a later analysis
+     */
+    Map<String, Map<String, String>> state() {
+        final Map<String, Map<String, String>> state = new TreeMap<>();
+        for (final FileEntry file : files) {
+            state.computeIfAbsent(file.layer(), layer -> new TreeMap<>())
+                .put(file.path(), file.size() + ":" + Long.toHexString(file.checksum()));
+        }
+        return state;
+    }
+
+    /**
+     * @return per layer, the number of added, removed, and modified files and the bytes that changed
+     */
+    Map<String, Map<String, Long>> churn(Map<String, Map<String, String>> previousState) {
+        final Map<String, Map<String, String>> currentState = state();
+        final Set<String> layers = new TreeSet<>(currentState.keySet());
+        layers.addAll(previousState.keySet());
+
+        final Map<String, Map<String, Long>> churn = new TreeMap<>();
+        for (final String layer : layers) {
+            final Map<String, String> previous = previousState.getOrDefault(layer, Map.of());
+            final Map<String, String> current = currentState.getOrDefault(layer, Map.of());
+            long added = 0, removed = 0, modified = 0, changedBytes = 0;
+            for (final Map.Entry<String, String> file : current.entrySet()) {
+                final String previousFile = previous.get(file.getKey());
+                if (previousFile == null) {
+                    added++;
+                } else if (!previousFile.equals(file.getValue())) {
+                    modified++;
+                } else {
+                    continue;
+                }
+                changedBytes += Long.parseLong(file.getValue().substring(0, file.getValue().indexOf(':')));
+            }
+            for (final String path : previous.keySet()) {
+                if (!current.containsKey(path)) {
+                    removed++;
+                }
+            }
+
+            final Map<String, Long> layerChurn = new LinkedHashMap<>();
+            layerChurn.put("added", added);
+            layerChurn.put("removed", removed);
+            layerChurn.put("modified", modified);
+            layerChurn.put("changedBytes", changedBytes);
+            churn.put(layer, layerChurn);
+        }
+        return churn;
+    }
+}
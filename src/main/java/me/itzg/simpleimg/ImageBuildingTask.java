@@ -0,0 +1,159 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Common inputs of the tasks that produce an image from the generated Dockerfile and its context.
+ */
+@DisableCachingByDefault(
+    because = "Only the subclass tasks can determine this"
+)
+public abstract class ImageBuildingTask extends ImageHandlingTask {
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    abstract DirectoryProperty getBootImageDirectory();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    abstract RegularFileProperty getDockerfile();
+
+    @Input
+    abstract Property<String> getBaseImage();
+
+    /**
+     * The project's base image lockfile, when it has one, which pins {@code BASE_IMG} to a digest
+     */
+    @Optional
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    abstract RegularFileProperty getBaseImageLockFile();
+
+    @Input
+    abstract Property<Integer> getExposePort();
+
+    /**
+     * One of {@value LayerCompression#GZIP}, {@value LayerCompression#ZSTD}, or {@value LayerCompression#ESTARGZ}
+     */
+    @Input
+    abstract Property<String> getLayerCompression();
+
+    @Optional
+    @Input
+    abstract Property<Integer> getLayerCompressionLevel();
+
+    @Optional
+    @Input
+    abstract Property<String> getImageDescription();
+
+    @Optional
+    @Input
+    abstract Property<String> getImageTitle();
+
+    @Optional
+    @Input
+    abstract Property<String> getImageVersion();
+
+    @Optional
+    @Input
+    abstract Property<String> getImageRevision();
+
+    @Optional
+    @Input
+    abstract Property<String> getImageSourceUrl();
+
+    @Optional
+    @Input
+    abstract MapProperty<String, String> getExtraImageLabels();
+
+    @Override
+    void apply(SharedProperties sharedProperties) {
+        getBaseImage().set(sharedProperties.getBaseImage());
+        getExposePort().set(sharedProperties.getExposePort());
+        getLayerCompression().set(sharedProperties.getLayerCompression());
+        getLayerCompressionLevel().set(sharedProperties.getLayerCompressionLevel());
+        getImageDescription().set(sharedProperties.getLabels().getDescription());
+        getImageTitle().set(sharedProperties.getLabels().getTitle());
+        getImageVersion().set(sharedProperties.getLabels().getVersion());
+        getImageRevision().set(sharedProperties.getLabels().getRevision());
+        getImageSourceUrl().set(sharedProperties.getLabels().getSourceUrl());
+        getExtraImageLabels().set(sharedProperties.getLabels().getExtra());
+
+        super.apply(sharedProperties);
+    }
+
+    /**
+     * @return the build args passed to the generated Dockerfile
+     */
+    Map<String, String> buildArgs() {
+        final Map<String, String> args = new LinkedHashMap<>();
+        args.put("BASE_IMG", lockedBaseImage());
+        args.put("EXPOSE_PORT", String.valueOf(getExposePort().get()));
+        return args;
+    }
+
+    /**
+     * @return the base image pinned to the digest of the lockfile, or as configured when there is no lockfile
+     */
+    String lockedBaseImage() {
+        if (!isBaseImageLocked()) {
+            return getBaseImage().get();
+        }
+        final Path lockFile = getBaseImageLockFile().get().getAsFile().toPath();
+        final BaseImageLock lock;
+        try {
+            lock = BaseImageLock.read(lockFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read base image lockfile " + lockFile, e);
+        }
+        if (!lock.baseImage().equals(getBaseImage().get())) {
+            throw new IllegalArgumentException(String.format(
+                "Base image lockfile %s is for %s rather than %s, which can be updated with %s",
+                lockFile, lock.baseImage(), getBaseImage().get(), SimpleBootImagePlugin.LOCK_BASE_IMAGE_TASK_NAME
+            ));
+        }
+        return lock.pinned();
+    }
+
+    /**
+     * @return true when the base image is pinned to a digest, so it never needs to be pulled again
+     */
+    boolean isBaseImageLocked() {
+        return getBaseImageLockFile().isPresent();
+    }
+
+    /**
+     * @return the OCI annotation labels followed by any extra labels
+     */
+    Map<String, String> imageLabels() {
+        final Map<String, String> labels = new LinkedHashMap<>();
+        putLabel(labels, "org.opencontainers.image.description", getImageDescription());
+        putLabel(labels, "org.opencontainers.image.title", getImageTitle());
+        putLabel(labels, "org.opencontainers.image.version", getImageVersion());
+        putLabel(labels, "org.opencontainers.image.revision", getImageRevision());
+        putLabel(labels, "org.opencontainers.image.source", getImageSourceUrl());
+        labels.putAll(getExtraImageLabels().get());
+        return labels;
+    }
+
+    private void putLabel(Map<String, String> labels, String labelName, Property<String> property) {
+        if (property.isPresent() && !property.get().isBlank()) {
+            labels.put(labelName, property.get());
+        }
+    }
+}
@@ -8,7 +8,9 @@ import java.util.stream.Collectors;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.work.DisableCachingByDefault;
 
@@ -17,6 +19,8 @@ import org.gradle.work.DisableCachingByDefault;
 )
 public abstract class ImageHandlingTask extends DefaultTask {
 
+    private static final Pattern FULLY_QUALIFIED_IMAGE_NAME = Pattern.compile("(.*)/(.*?)(:(.*))?");
+
     @Optional
     @Input
     abstract Property<String> getImageRepo();
@@ -27,6 +31,12 @@ public abstract class ImageHandlingTask extends DefaultTask {
     @Input
     abstract ListProperty<String> getTags();
 
+    /**
+     * Present when timings of the image build phases are being reported
+     */
+    @Internal
+    abstract Property<BuildTimingService> getTimingService();
+
     protected String calculateFullImageName() {
         return getImageRepo().isPresent() ?
             getImageRepo().get() + "/" + getImageName().get()
@@ -41,23 +51,26 @@ public abstract class ImageHandlingTask extends DefaultTask {
     }
 
     void apply(SharedProperties sharedProperties) {
-        if (sharedProperties.getFullyQualifiedImageName().isPresent()) {
-            final Pattern namePattern = Pattern.compile("(.*)/(.*?)(:(.*))?");
-            final Matcher matcher = namePattern.matcher(sharedProperties.getFullyQualifiedImageName().get());
-            if (matcher.matches()) {
-                getImageRepo().set(matcher.group(1));
-                getImageName().set(matcher.group(2));
-                getTags().set(matcher.group(3) != null ?
-                    List.of(matcher.group(4)) : List.of("latest"));
-            }
-            else {
-                throw new IllegalArgumentException("Malformed fullyQualifiedImageName");
-            }
-        }
-        else {
-            getImageRepo().set(sharedProperties.getImageRepo());
-            getImageName().set(sharedProperties.getImageName());
-            getTags().set(sharedProperties.getTags());
+        // a fully qualified image name, such as from skaffold, overrides the individual parts
+        final Provider<Matcher> fullyQualifiedImageName = sharedProperties.getFullyQualifiedImageName()
+            .map(ImageHandlingTask::parseFullyQualifiedImageName);
+        getImageRepo().set(fullyQualifiedImageName.map(matcher -> matcher.group(1))
+            .orElse(sharedProperties.getImageRepo())
+        );
+        getImageName().set(fullyQualifiedImageName.map(matcher -> matcher.group(2))
+            .orElse(sharedProperties.getImageName())
+        );
+        getTags().set(fullyQualifiedImageName.map(matcher -> matcher.group(3) != null ?
+                List.of(matcher.group(4)) : List.of("latest"))
+            .orElse(sharedProperties.getTags())
+        );
+    }
+
+    private static Matcher parseFullyQualifiedImageName(String fullyQualifiedImageName) {
+        final Matcher matcher = FULLY_QUALIFIED_IMAGE_NAME.matcher(fullyQualifiedImageName);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Malformed fullyQualifiedImageName");
         }
+        return matcher;
     }
 }
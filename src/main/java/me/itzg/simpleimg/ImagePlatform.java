@@ -0,0 +1,56 @@
+package me.itzg.simpleimg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An {@code os/arch[/variant]} platform, as used by buildx and image indexes.
+ */
+record ImagePlatform(String os, String architecture, String variant) {
+
+    static ImagePlatform parse(String platform) {
+        final String[] parts = platform.split("/");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Malformed platform, expected os/arch[/variant]: " + platform);
+        }
+        return new ImagePlatform(parts[0], parts[1], parts.length > 2 ? parts[2] : null);
+    }
+
+    /**
+     * @return the platform of the current machine, which is what the Docker daemon would default to
+     */
+    static ImagePlatform host() {
+        final String arch = System.getProperty("os.arch");
+        return new ImagePlatform("linux", switch (arch) {
+            case "x86_64", "amd64" -> "amd64";
+            case "aarch64", "arm64" -> "arm64";
+            default -> arch;
+        }, null);
+    }
+
+    /**
+     * @param platform the {@code platform} object of an image index entry
+     */
+    boolean matches(Map<?, ?> platform) {
+        return platform != null
+            && os.equals(platform.get("os"))
+            && architecture.equals(platform.get("architecture"))
+            && (variant == null || Objects.equals(variant, platform.get("variant")));
+    }
+
+    Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("architecture", architecture);
+        map.put("os", os);
+        if (variant != null) {
+            map.put("variant", variant);
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return os + "/" + architecture + (variant != null ? "/" + variant : "");
+    }
+}
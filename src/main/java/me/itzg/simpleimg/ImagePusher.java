@@ -0,0 +1,234 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Pushes an image, or an index of an image per platform, from an OCI image layout directly to a
+ * registry: blobs the registry already has are skipped, base image layers are mounted from the base
+ * image's repository when possible, and the remaining blobs are uploaded concurrently in resumable
+ * chunks before the manifest is put.
+ * <p>
+ * Only the first tag is pushed in full. Additional tags are applied with manifest-only puts of the
+ * same digest, since the registry already has everything they reference.
+ */
+class ImagePusher {
+
+    static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    static final int MAX_ATTEMPTS = 3;
+
+    private final RegistryClient registryClient;
+    private final int parallelism;
+    private final Logger logger;
+
+    ImagePusher(RegistryClient registryClient, int parallelism, Logger logger) {
+        this.registryClient = registryClient;
+        this.parallelism = parallelism;
+        this.logger = logger;
+    }
+
+    /**
+     * @param manifest a manifest within the layout
+     * @param tags the tags to push, where the first one is pushed in full
+     * @param mountFrom a repository on the same registry to mount blobs from, typically the base image's, or {@code null}
+     */
+    void push(OciLayout layout, ImageReference image, List<String> tags, OciLayout.Descriptor manifest, String mountFrom)
+        throws IOException {
+        final byte[] manifestContent = Files.readAllBytes(layout.blobPath(manifest.digest()));
+        final ImageReference target = image.withTag(tags.get(0));
+
+        if (isTagged(target, manifest.digest())) {
+            logger.info("Skipping push of {} since it is already at {}", target, manifest.digest());
+        }
+        else {
+            if (manifest.mediaType().equals(RegistryClient.OCI_INDEX)) {
+                pushPlatformManifests(layout, target, manifest, mountFrom);
+            }
+            else {
+                pushBlobs(layout, target, manifestContent, manifest, mountFrom);
+            }
+            registryClient.putManifest(target.repository(), target.tag(), manifest.mediaType(), manifestContent);
+            logger.info("Pushed {} with digest {}", target, manifest.digest());
+        }
+
+        retag(image, new RegistryClient.Manifest(manifest.mediaType(), manifest.digest(), manifestContent),
+            tags.subList(1, tags.size())
+        );
+    }
+
+    /**
+     * Points the given tags at a manifest that the registry already has, concurrently.
+     */
+    void retag(ImageReference image, RegistryClient.Manifest manifest, List<String> tags) throws IOException {
+        final List<Callable<Void>> puts = new ArrayList<>();
+        for (final String tag : tags) {
+            final ImageReference target = image.withTag(tag);
+            puts.add(() -> {
+                if (isTagged(target, manifest.digest())) {
+                    logger.info("Skipping tag {} since it is already at {}", target, manifest.digest());
+                }
+                else {
+                    registryClient.putManifest(target.repository(), target.tag(), manifest.mediaType(), manifest.content());
+                    logger.info("Tagged {} with digest {}", target, manifest.digest());
+                }
+                return null;
+            });
+        }
+        runConcurrently(puts, "tag " + image);
+    }
+
+    /**
+     * @return true if the tag of the given reference already resolves to the digest in the registry
+     */
+    boolean isTagged(ImageReference target, String digest) throws IOException {
+        return digest.equals(registryClient.manifestDigest(target.repository(), target.tag()));
+    }
+
+    /**
+     * Pushes the manifest of each platform of an image index, by digest, so that the index can be put.
+     * Blobs shared by the platforms, such as the application layers, are only uploaded once.
+     */
+    private void pushPlatformManifests(OciLayout layout, ImageReference target, OciLayout.Descriptor index,
+        String mountFrom
+    ) throws IOException {
+        for (final Object entryObj : (List<?>) layout.readJsonBlob(index.digest()).get("manifests")) {
+            final Map<String, Object> entry = AssembleImageTask.castMap(entryObj);
+            final OciLayout.Descriptor platformManifest = new OciLayout.Descriptor(
+                (String) entry.get("mediaType"), (String) entry.get("digest"), ((Number) entry.get("size")).longValue()
+            );
+            if (platformManifest.digest().equals(registryClient.manifestDigest(target.repository(), platformManifest.digest()))) {
+                logger.debug("Registry already has manifest {}", platformManifest.digest());
+                continue;
+            }
+            final byte[] content = Files.readAllBytes(layout.blobPath(platformManifest.digest()));
+            pushBlobs(layout, target, content, platformManifest, mountFrom);
+            registryClient.putManifest(target.repository(), platformManifest.digest(), platformManifest.mediaType(), content);
+        }
+    }
+
+    private void pushBlobs(OciLayout layout, ImageReference target, byte[] manifestContent,
+        OciLayout.Descriptor manifest, String mountFrom
+    ) throws IOException {
+        final Map<String, Object> parsedManifest = new RegistryClient.Manifest(
+            manifest.mediaType(), manifest.digest(), manifestContent
+        ).parse();
+
+        // config first, since some registries validate it against the layers that follow
+        final Set<String> blobs = new LinkedHashSet<>();
+        blobs.add((String) AssembleImageTask.castMap(parsedManifest.get("config")).get("digest"));
+        for (final Object layer : (List<?>) parsedManifest.get("layers")) {
+            blobs.add((String) AssembleImageTask.castMap(layer).get("digest"));
+        }
+
+        final List<Callable<Void>> uploads = new ArrayList<>();
+        for (final String digest : blobs) {
+            uploads.add(() -> {
+                pushBlob(layout, target.repository(), digest, mountFrom);
+                return null;
+            });
+        }
+        runConcurrently(uploads, "push blobs to " + target);
+    }
+
+    private void runConcurrently(List<Callable<Void>> tasks, String description) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (final Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ioException ? ioException
+                : new IOException("Failed to " + description, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while trying to " + description, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void pushBlob(OciLayout layout, String repository, String digest, String mountFrom) throws IOException {
+        if (registryClient.hasBlob(repository, digest)) {
+            logger.debug("Registry already has blob {}", digest);
+            return;
+        }
+
+        final URI location = registryClient.startUpload(
+            repository, digest, mountFrom != null && !mountFrom.equals(repository) ? mountFrom : null
+        );
+        if (location == null) {
+            logger.debug("Mounted blob {} from {}", digest, mountFrom);
+            return;
+        }
+
+        logger.debug("Uploading blob {}", digest);
+        final URI completedLocation = uploadChunks(repository, layout.blobPath(digest), location);
+        registryClient.completeUpload(repository, completedLocation, digest);
+    }
+
+    /**
+     * @return the location to complete the upload
+     */
+    private URI uploadChunks(String repository, Path blob, URI startLocation) throws IOException {
+        final long size = Files.size(blob);
+        final byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(size, 1))];
+        URI location = startLocation;
+        long offset = 0;
+        int failures = 0;
+
+        while (offset < size) {
+            final int length = readChunk(blob, offset, chunk);
+            try {
+                location = registryClient.uploadChunk(repository, location, chunk, length, offset);
+                offset += length;
+                failures = 0;
+            } catch (IOException e) {
+                if (++failures >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                logger.info("Retrying upload to {} after failure: {}", repository, e.getMessage());
+                backoff(failures);
+                // resume from what the registry actually received
+                offset = registryClient.uploadedBytes(repository, location);
+            }
+        }
+        return location;
+    }
+
+    private static int readChunk(Path blob, long offset, byte[] chunk) throws IOException {
+        try (InputStream in = Files.newInputStream(blob)) {
+            in.skipNBytes(offset);
+            return in.readNBytes(chunk, 0, chunk.length);
+        }
+    }
+
+    private static void backoff(int failures) throws IOException {
+        try {
+            Thread.sleep(500L * (1L << failures));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrying upload", e);
+        }
+    }
+}
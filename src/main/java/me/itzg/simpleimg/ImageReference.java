@@ -0,0 +1,78 @@
+package me.itzg.simpleimg;
+
+/**
+ * A parsed image reference, such as {@code eclipse-temurin:21} or
+ * {@code ghcr.io/itzg/app:1.0@sha256:...}, normalized the same way the Docker CLI does.
+ *
+ * @param registry the registry host, such as {@code docker.io}
+ * @param repository the repository within the registry, such as {@code library/eclipse-temurin}
+ * @param tag the tag, which is {@code null} when only a digest was given
+ * @param digest the digest, if given
+ */
+record ImageReference(String registry, String repository, String tag, String digest) {
+
+    static final String DOCKER_HUB = "docker.io";
+
+    static ImageReference parse(String reference) {
+        String remainder = reference;
+
+        String digest = null;
+        final int atPos = remainder.indexOf('@');
+        if (atPos >= 0) {
+            digest = remainder.substring(atPos + 1);
+            remainder = remainder.substring(0, atPos);
+        }
+
+        String tag = null;
+        final int colonPos = remainder.lastIndexOf(':');
+        if (colonPos > remainder.lastIndexOf('/')) {
+            tag = remainder.substring(colonPos + 1);
+            remainder = remainder.substring(0, colonPos);
+        }
+
+        String registry = DOCKER_HUB;
+        final int slashPos = remainder.indexOf('/');
+        if (slashPos >= 0) {
+            final String first = remainder.substring(0, slashPos);
+            if (first.contains(".") || first.contains(":") || first.equals("localhost")) {
+                registry = first;
+                remainder = remainder.substring(slashPos + 1);
+            }
+        }
+
+        if (registry.equals(DOCKER_HUB) && !remainder.contains("/")) {
+            remainder = "library/" + remainder;
+        }
+
+        if (remainder.isEmpty()) {
+            throw new IllegalArgumentException("Malformed image reference: " + reference);
+        }
+
+        return new ImageReference(registry, remainder,
+            tag == null && digest == null ? "latest" : tag,
+            digest
+        );
+    }
+
+    /**
+     * @return the digest, if present, otherwise the tag
+     */
+    String manifestReference() {
+        return digest != null ? digest : tag;
+    }
+
+    ImageReference withTag(String newTag) {
+        return new ImageReference(registry, repository, newTag, null);
+    }
+
+    ImageReference withDigest(String newDigest) {
+        return new ImageReference(registry, repository, tag, newDigest);
+    }
+
+    @Override
+    public String toString() {
+        return registry + "/" + repository
+            + (tag != null ? ":" + tag : "")
+            + (digest != null ? "@" + digest : "");
+    }
+}
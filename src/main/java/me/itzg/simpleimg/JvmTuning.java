@@ -0,0 +1,90 @@
+package me.itzg.simpleimg;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.gradle.api.provider.Property;
+
+/**
+ * Describes the resource limits of the containers that will run the image, from which JVM options
+ * are derived that replace the JVM's default ergonomics. Those defaults assume the JVM has the
+ * machine to itself, such as picking the serial collector and a quarter of memory for the heap
+ * when limited to one CPU.
+ */
+abstract public class JvmTuning {
+
+    static final String LATENCY = "latency";
+    static final String THROUGHPUT = "throughput";
+
+    private static final int MIN_METASPACE_MB = 128;
+    private static final int MAX_METASPACE_MB = 512;
+    /**
+     * Left outside the heap and metaspace for the code cache, thread stacks, and GC structures
+     */
+    private static final int OTHER_NON_HEAP_MB = 128;
+    private static final double MIN_HEAP_PERCENTAGE = 25.0;
+    private static final double MAX_HEAP_PERCENTAGE = 75.0;
+
+    /**
+     * The memory limit of the container in MiB
+     */
+    abstract Property<Integer> getMemoryLimitMb();
+
+    /**
+     * The CPU limit of the container, which may be fractional
+     */
+    abstract Property<Double> getCpuLimit();
+
+    /**
+     * Either {@value #THROUGHPUT} or {@value #LATENCY}, which determines the garbage collector
+     */
+    abstract Property<String> getProfile();
+
+    public JvmTuning() {
+        getProfile().convention(THROUGHPUT);
+    }
+
+    /**
+     * @param memoryLimitMb the container memory limit or null if not declared
+     * @param cpuLimit the container CPU limit or null if not declared
+     * @return the JVM options, which are empty when no limits were declared
+     */
+    static List<String> jvmOptions(Integer memoryLimitMb, Double cpuLimit, String profile) {
+        if (!profile.equals(THROUGHPUT) && !profile.equals(LATENCY)) {
+            throw new IllegalArgumentException("JVM tuning profile must be " + THROUGHPUT + " or " + LATENCY);
+        }
+        final List<String> options = new ArrayList<>();
+        if (memoryLimitMb == null && cpuLimit == null) {
+            return options;
+        }
+
+        final Integer processors = cpuLimit != null ? Math.max(1, (int) Math.ceil(cpuLimit)) : null;
+        if (processors != null) {
+            options.add("-XX:ActiveProcessorCount=" + processors);
+        }
+
+        if (profile.equals(LATENCY)) {
+            options.add("-XX:+UseG1GC");
+        }
+        else {
+            // the parallel collector only pays off when there are cores to run it on
+            options.add(processors != null && processors < 2 ? "-XX:+UseSerialGC" : "-XX:+UseParallelGC");
+        }
+
+        if (memoryLimitMb != null) {
+            // metaspace is capped no lower than what a typical Spring Boot application needs, and the
+            // code cache keeps its default size, since shrinking either breaks the JVM rather than saving memory
+            final int metaspaceMb = Math.min(MAX_METASPACE_MB, Math.max(MIN_METASPACE_MB, memoryLimitMb / 4));
+            // instead, the heap leaves room for them, so smaller containers get proportionally less heap
+            final double heapPercentage = Math.floor(10 * Math.min(MAX_HEAP_PERCENTAGE, Math.max(MIN_HEAP_PERCENTAGE,
+                100.0 * (memoryLimitMb - metaspaceMb - OTHER_NON_HEAP_MB) / memoryLimitMb
+            ))) / 10;
+            options.add("-XX:MaxRAMPercentage=" + heapPercentage);
+            if (profile.equals(THROUGHPUT)) {
+                // avoid the cost of growing the heap
+                options.add("-XX:InitialRAMPercentage=" + heapPercentage);
+            }
+            options.add("-XX:MaxMetaspaceSize=" + metaspaceMb + "m");
+        }
+        return options;
+    }
+}
@@ -0,0 +1,166 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * A cache of compressed layer blobs, shared across builds, that is keyed by the diff ID, the digest of
+ * the uncompressed layer tar. Since tar entries are written reproducibly, the diff ID only changes when
+ * the layer's content changes, so an unchanged layer can be handed back without re-compressing it.
+ * Blobs compressed at a level other than the default are cached separately.
+ * <p>
+ * Entries are evicted least recently used first once the total size of the cached blobs exceeds the
+ * configured maximum. A build that finds its entry evicted by a concurrent build while reusing it
+ * compresses the layer again instead.
+ */
+class LayerBlobCache {
+
+    private static final Logger logger = Logging.getLogger(LayerBlobCache.class);
+
+    private static final String BLOB_SUFFIX = ".blob";
+    private static final String METADATA_SUFFIX = ".properties";
+
+    private final Path directory;
+    private final long maxSizeBytes;
+
+    LayerBlobCache(Path directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * @param level the deflate level of the compression
+     */
+    OciLayout.Layer getOrCreate(OciLayout layout, OciLayout.TarContent content, int level) throws IOException {
+        final String diffId = diffId(content);
+        final String name = level == Deflater.DEFAULT_COMPRESSION ? Digests.hex(diffId)
+            : Digests.hex(diffId) + "-level" + level;
+        final Path metadataFile = directory.resolve(name + METADATA_SUFFIX);
+        final Path blobFile = directory.resolve(name + BLOB_SUFFIX);
+
+        if (Files.isRegularFile(metadataFile) && Files.isRegularFile(blobFile)) {
+            try {
+                final OciLayout.Layer cached = reuse(layout, metadataFile, blobFile, diffId);
+                if (cached != null) {
+                    return cached;
+                }
+            } catch (NoSuchFileException e) {
+                // evicted by a concurrent build between the lookup and placing the blob
+                logger.debug("Re-compressing layer {} since its cached blob was evicted", diffId);
+            }
+        }
+
+        final OciLayout.Layer layer = layout.writeLayer(content, level);
+        store(name, layer, layout.blobPath(layer.descriptor().digest()));
+        evict();
+        return layer;
+    }
+
+    /**
+     * @return the cached layer placed in the layout, or {@code null} if the cached blob is incomplete
+     */
+    private static OciLayout.Layer reuse(OciLayout layout, Path metadataFile, Path blobFile, String diffId)
+        throws IOException {
+        final Properties metadata = new Properties();
+        try (InputStream in = Files.newInputStream(metadataFile)) {
+            metadata.load(in);
+        }
+        final OciLayout.Descriptor descriptor = new OciLayout.Descriptor(
+            metadata.getProperty("mediaType"),
+            metadata.getProperty("digest"),
+            Long.parseLong(metadata.getProperty("size"))
+        );
+        if (Files.size(blobFile) != descriptor.size()) {
+            return null;
+        }
+
+        logger.debug("Reusing cached layer blob {} for {}", descriptor.digest(), diffId);
+        // mark as recently used
+        Files.setLastModifiedTime(metadataFile, FileTime.from(Instant.now()));
+        if (!layout.hasBlob(descriptor.digest())) {
+            layout.addBlob(descriptor.digest(), blobFile);
+        }
+        return new OciLayout.Layer(descriptor, diffId);
+    }
+
+    /**
+     * Calculates the diff ID without writing or compressing the tar.
+     */
+    static String diffId(OciLayout.TarContent content) throws IOException {
+        final DigestOutputStream digestOut = new DigestOutputStream(OutputStream.nullOutputStream(), Digests.newSha256());
+        try (TarWriter tarWriter = new TarWriter(digestOut)) {
+            content.write(tarWriter);
+        }
+        return Digests.format(digestOut.getMessageDigest());
+    }
+
+    private void store(String name, OciLayout.Layer layer, Path blob) throws IOException {
+        Files.createDirectories(directory);
+
+        // stage then move into place, so concurrent builds only ever see complete entries
+        final Path tempBlob = directory.resolve(name + "-" + UUID.randomUUID() + ".tmp");
+        FileLinking.linkOrCopy(blob, tempBlob);
+        Files.move(tempBlob, directory.resolve(name + BLOB_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+
+        final Properties metadata = new Properties();
+        metadata.setProperty("mediaType", layer.descriptor().mediaType());
+        metadata.setProperty("digest", layer.descriptor().digest());
+        metadata.setProperty("size", Long.toString(layer.descriptor().size()));
+        final Path tempMetadata = Files.createTempFile(directory, name, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempMetadata)) {
+            metadata.store(out, null);
+        }
+        Files.move(tempMetadata, directory.resolve(name + METADATA_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void evict() throws IOException {
+        record Entry(Path metadataFile, Path blobFile, FileTime lastUsed, long size) {
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (final Path metadataFile : paths.filter(path -> path.toString().endsWith(METADATA_SUFFIX)).toList()) {
+                final String fileName = metadataFile.getFileName().toString();
+                final Path blobFile = directory.resolve(
+                    fileName.substring(0, fileName.length() - METADATA_SUFFIX.length()) + BLOB_SUFFIX
+                );
+                try {
+                    final long size = Files.exists(blobFile) ? Files.size(blobFile) : 0;
+                    entries.add(new Entry(metadataFile, blobFile, Files.getLastModifiedTime(metadataFile), size));
+                    totalSize += size;
+                } catch (NoSuchFileException e) {
+                    // evicted by a concurrent build
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+        for (final Entry entry : entries) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            logger.debug("Evicting cached layer blob {}", entry.blobFile());
+            Files.deleteIfExists(entry.metadataFile());
+            Files.deleteIfExists(entry.blobFile());
+            totalSize -= entry.size();
+        }
+    }
+}
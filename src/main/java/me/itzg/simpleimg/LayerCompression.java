@@ -0,0 +1,70 @@
+package me.itzg.simpleimg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * The compression of the image's layers, which maps to the attributes of BuildKit's image and docker
+ * exporters. Layers compressed with zstd decompress several times faster than gzip, and eStargz
+ * layers, which remain readable as gzip, can be lazily pulled by snapshotters that support them.
+ * <p>
+ * Both zstd and eStargz re-compress the base image's layers too, and use OCI media types, so that every
+ * layer of the image benefits when pulled.
+ */
+class LayerCompression {
+
+    static final String GZIP = "gzip";
+    static final String ZSTD = "zstd";
+    static final String ESTARGZ = "estargz";
+
+    private static final int MAX_ZSTD_LEVEL = 22;
+
+    /**
+     * @param level the compression level, or {@code null} for the default of the compression
+     * @return the attributes of an image or docker exporter, which are empty for gzip at its default level
+     */
+    static List<String> exporterAttributes(String compression, Integer level) {
+        validate(compression, level);
+        final List<String> attributes = new ArrayList<>();
+        if (compression.equals(GZIP) && level == null) {
+            return attributes;
+        }
+        attributes.add("compression=" + compression);
+        if (level != null) {
+            attributes.add("compression-level=" + level);
+        }
+        if (!compression.equals(GZIP)) {
+            attributes.add("force-compression=true");
+            attributes.add("oci-mediatypes=true");
+        }
+        return attributes;
+    }
+
+    /**
+     * @return the deflate level of the layers this plugin compresses itself, which can only be gzip
+     */
+    static int gzipLevel(String compression, Integer level) {
+        validate(compression, level);
+        if (!compression.equals(GZIP)) {
+            throw new IllegalArgumentException("Layer compression " + compression
+                + " requires buildSimpleBootImage with buildx, since assembled images can only use " + GZIP);
+        }
+        return level != null ? level : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    private static void validate(String compression, Integer level) {
+        final int maxLevel = switch (compression) {
+            case GZIP, ESTARGZ -> Deflater.BEST_COMPRESSION;
+            case ZSTD -> MAX_ZSTD_LEVEL;
+            default -> throw new IllegalArgumentException(
+                "Layer compression must be " + GZIP + ", " + ZSTD + ", or " + ESTARGZ
+            );
+        };
+        if (level != null && (level < 0 || level > maxLevel)) {
+            throw new IllegalArgumentException(
+                "Compression level of " + compression + " must be from 0 to " + maxLevel
+            );
+        }
+    }
+}
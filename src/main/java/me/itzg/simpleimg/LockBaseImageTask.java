@@ -0,0 +1,74 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Resolves the base image to the digest of its index or manifest, and of each platform's manifest,
+ * and writes them to the project's lockfile, which pins the base image of image builds.
+ */
+@DisableCachingByDefault(because = "The base image is resolved from its registry")
+public abstract class LockBaseImageTask extends DefaultTask {
+
+    @Input
+    abstract Property<String> getBaseImage();
+
+    /**
+     * Where resolutions are cached across projects and builds, typically within the Gradle user home
+     */
+    @Internal
+    abstract DirectoryProperty getResolutionCacheDirectory();
+
+    /**
+     * How long a cached resolution is used before resolving again, where zero disables the cache
+     */
+    @Internal
+    abstract Property<Integer> getResolutionTtlMinutes();
+
+    @OutputFile
+    abstract RegularFileProperty getLockFile();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    public LockBaseImageTask() {
+        // the tag may have moved since the lockfile was written
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    void apply(SharedProperties sharedProperties) {
+        getBaseImage().set(sharedProperties.getBaseImage());
+        getResolutionTtlMinutes().set(sharedProperties.getBaseImageResolutionTtlMinutes());
+    }
+
+    @TaskAction
+    void lock() throws IOException {
+        final BaseImageLock lock = BaseImageLock.resolve(getBaseImage().get(),
+            getResolutionCacheDirectory().get().getAsFile().toPath(),
+            Duration.ofMinutes(getResolutionTtlMinutes().get()),
+            getExecOperations()
+        ).forLockfile();
+
+        final Path lockFile = getLockFile().get().getAsFile().toPath();
+        final BaseImageLock previous = Files.isRegularFile(lockFile) ? BaseImageLock.read(lockFile) : null;
+        if (lock.equals(previous)) {
+            getLogger().info("Base image {} is still locked to {}", lock.baseImage(), lock.digest());
+            return;
+        }
+        lock.write(lockFile);
+        getLogger().lifecycle("Locked base image {} to {}", lock.baseImage(), lock.digest());
+    }
+}
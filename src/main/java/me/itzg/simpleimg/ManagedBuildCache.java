@@ -0,0 +1,211 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * A local BuildKit cache of one project, kept under the Gradle user home. BuildKit's {@code type=local}
+ * cache export never removes what previous builds exported, so each build instead exports to a new
+ * directory that atomically replaces the current one once the build succeeds. The replaced export
+ * and anything it alone referenced is then deleted.
+ * <p>
+ * Across projects, caches not used within the maximum age are evicted, followed by the least recently
+ * used ones until the total size is within the maximum.
+ */
+class ManagedBuildCache {
+
+    private static final Logger logger = Logging.getLogger(ManagedBuildCache.class);
+
+    /**
+     * The key of a bake target's managed cache settings, which the bake task replaces with the
+     * target's cache imports and exports
+     */
+    static final String METADATA_KEY = "x-simple-boot-image-cache";
+
+    private static final String CURRENT = "current";
+    private static final String INCOMING_PREFIX = "incoming-";
+    private static final String RETIRED_PREFIX = "retired-";
+    private static final String LOCK_FILE = ".lock";
+    // leftovers of builds that were killed before committing or discarding their export
+    private static final Duration ABANDONED_AGE = Duration.ofDays(1);
+    // file locks are held per JVM, so concurrent projects of a build also need to exclude each other
+    private static final Object jvmLock = new Object();
+
+    private final Path directory;
+
+    /**
+     * @param directory the cache directory of one project, within the root directory of all managed caches
+     */
+    ManagedBuildCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return a directory name that is unique to a project of a build, yet recognizable
+     */
+    static String directoryName(String rootProjectDirectory, String projectPath) {
+        return GenerateBakeTargetTask.targetName(projectPath) + "-"
+            + Digests.hex(Digests.sha256((rootProjectDirectory + projectPath).getBytes(StandardCharsets.UTF_8))).substring(0, 12);
+    }
+
+    /**
+     * @return the {@code --cache-from} value, or null when no build has exported a cache yet
+     */
+    String cacheFrom() {
+        final Path current = directory.resolve(CURRENT);
+        return Files.isRegularFile(current.resolve("index.json")) ? "type=local,src=" + current : null;
+    }
+
+    /**
+     * @return a new directory for the next build to export its cache into
+     */
+    Path newIncoming() {
+        return directory.resolve(INCOMING_PREFIX + UUID.randomUUID());
+    }
+
+    static String cacheTo(Path incoming) {
+        return "type=local,dest=" + incoming + ",mode=max";
+    }
+
+    /**
+     * Replaces the current cache with the one exported by a successful build, then evicts caches
+     * of all projects as needed.
+     */
+    void commit(Path incoming, long maxSizeBytes, Duration maxAge) throws IOException {
+        if (!Files.isDirectory(incoming)) {
+            logger.debug("Build did not export a cache to {}", incoming);
+            return;
+        }
+        withLock(() -> {
+            final Path current = directory.resolve(CURRENT);
+            final Path retired = directory.resolve(RETIRED_PREFIX + UUID.randomUUID());
+            if (Files.exists(current)) {
+                Files.move(current, retired, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(incoming, current, StandardCopyOption.ATOMIC_MOVE);
+            // marks as recently used
+            Files.setLastModifiedTime(current, FileTime.from(Instant.now()));
+            deleteRecursively(retired);
+
+            evict(maxSizeBytes, maxAge);
+        });
+    }
+
+    /**
+     * Deletes the export of a failed build, leaving the current cache in place.
+     */
+    void discard(Path incoming) throws IOException {
+        deleteRecursively(incoming);
+    }
+
+    private void evict(long maxSizeBytes, Duration maxAge) throws IOException {
+        record Entry(Path directory, FileTime lastUsed, long size) {
+        }
+
+        final Instant now = Instant.now();
+        final List<Entry> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (Stream<Path> projectDirs = Files.list(directory.getParent())) {
+            for (final Path projectDir : projectDirs.filter(Files::isDirectory).toList()) {
+                deleteAbandoned(projectDir, now);
+
+                final Path current = projectDir.resolve(CURRENT);
+                if (!Files.isDirectory(current) || projectDir.equals(directory)) {
+                    continue;
+                }
+                final FileTime lastUsed = Files.getLastModifiedTime(current);
+                if (lastUsed.toInstant().isBefore(now.minus(maxAge))) {
+                    logger.info("Evicting build cache {} unused since {}", projectDir, lastUsed);
+                    deleteRecursively(projectDir);
+                    continue;
+                }
+                final long size = size(projectDir);
+                entries.add(new Entry(projectDir, lastUsed, size));
+                totalSize += size;
+            }
+        }
+
+        // the cache that was just committed is always retained
+        totalSize += size(directory);
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+        for (final Entry entry : entries) {
+            if (totalSize <= maxSizeBytes) {
+                break;
+            }
+            logger.info("Evicting least recently used build cache {}", entry.directory());
+            deleteRecursively(entry.directory());
+            totalSize -= entry.size();
+        }
+        if (totalSize > maxSizeBytes) {
+            logger.warn("Build cache {} alone exceeds the maximum size of managed build caches", directory);
+        }
+    }
+
+    private static void deleteAbandoned(Path projectDir, Instant now) throws IOException {
+        try (Stream<Path> entries = Files.list(projectDir)) {
+            for (final Path entry : entries.toList()) {
+                final String name = entry.getFileName().toString();
+                if ((name.startsWith(INCOMING_PREFIX) || name.startsWith(RETIRED_PREFIX))
+                    && Files.getLastModifiedTime(entry).toInstant().isBefore(now.minus(ABANDONED_AGE))) {
+                    deleteRecursively(entry);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LockedAction {
+        void run() throws IOException;
+    }
+
+    private void withLock(LockedAction action) throws IOException {
+        Files.createDirectories(directory);
+        synchronized (jvmLock) {
+            try (FileChannel channel = FileChannel.open(directory.getParent().resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE
+            )) {
+                final FileLock lock = channel.lock();
+                try {
+                    action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private static long size(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile)
+                .mapToLong(file -> file.toFile().length())
+                .sum();
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (final Path entry : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an <a href="https://github.com/opencontainers/image-spec/blob/main/image-layout.md">OCI image layout</a>
+ * directory, where blobs are stored by digest under {@code blobs/sha256}.
+ */
+class OciLayout {
+
+    static final String OCI_CONFIG = "application/vnd.oci.image.config.v1+json";
+    static final String OCI_LAYER_GZIP = "application/vnd.oci.image.layer.v1.tar+gzip";
+    static final String REF_NAME_ANNOTATION = "org.opencontainers.image.ref.name";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param mediaType the media type of the referenced content
+     * @param digest the digest of the referenced content
+     * @param size the size, in bytes, of the referenced content
+     */
+    record Descriptor(String mediaType, String digest, long size) {
+        Map<String, Object> toMap() {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            map.put("mediaType", mediaType);
+            map.put("digest", digest);
+            map.put("size", size);
+            return map;
+        }
+    }
+
+    /**
+     * @param descriptor describes the compressed blob
+     * @param diffId the digest of the uncompressed tar, as listed in the image config's rootfs
+     */
+    record Layer(Descriptor descriptor, String diffId) {
+    }
+
+    @FunctionalInterface
+    interface TarContent {
+        void write(TarWriter tarWriter) throws IOException;
+    }
+
+    private final Path root;
+
+    OciLayout(Path root) {
+        this.root = root;
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    Path blobPath(String digest) {
+        return root.resolve("blobs/sha256").resolve(Digests.hex(digest));
+    }
+
+    boolean hasBlob(String digest) {
+        return Files.isRegularFile(blobPath(digest));
+    }
+
+    /**
+     * Adds an existing blob file, such as from a cache, without re-writing its content when possible.
+     * The blob is staged then moved into place, so it's never left partially copied if the source
+     * is removed while copying.
+     */
+    void addBlob(String digest, Path source) throws IOException {
+        final Path blobPath = blobPath(digest);
+        final Path tempFile = blobPath.resolveSibling(blobPath.getFileName() + "-" + UUID.randomUUID() + ".tmp");
+        try {
+            FileLinking.linkOrCopy(source, tempFile);
+            Files.move(tempFile, blobPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    Descriptor writeJsonBlob(String mediaType, Map<String, ?> content) throws IOException {
+        final byte[] bytes = JsonOutput.toJson(content).getBytes(StandardCharsets.UTF_8);
+        final String digest = Digests.sha256(bytes);
+        final Path blobPath = blobPath(digest);
+        Files.createDirectories(blobPath.getParent());
+        Files.write(blobPath, bytes);
+        return new Descriptor(mediaType, digest, bytes.length);
+    }
+
+    /**
+     * Writes a gzip compressed layer, using all cores for compression, and calculates both the
+     * compressed digest and the uncompressed diff ID in a single pass.
+     */
+    Layer writeLayer(TarContent content) throws IOException {
+        return writeLayer(content, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the deflate level of the compression
+     */
+    Layer writeLayer(TarContent content, int level) throws IOException {
+        final Path blobsDir = root.resolve("blobs/sha256");
+        Files.createDirectories(blobsDir);
+        final Path tempFile = Files.createTempFile(blobsDir, "layer", ".tmp");
+
+        final DigestOutputStream compressedOut;
+        final DigestOutputStream uncompressedOut;
+        try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE)) {
+            compressedOut = new DigestOutputStream(fileOut, Digests.newSha256());
+            uncompressedOut = new DigestOutputStream(
+                new ParallelGzipOutputStream(compressedOut, level, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE),
+                Digests.newSha256()
+            );
+            try (TarWriter tarWriter = new TarWriter(uncompressedOut)) {
+                content.write(tarWriter);
+            }
+        }
+
+        final String digest = Digests.format(compressedOut.getMessageDigest());
+        final long size = Files.size(tempFile);
+        Files.move(tempFile, blobPath(digest), StandardCopyOption.REPLACE_EXISTING);
+        return new Layer(
+            new Descriptor(OCI_LAYER_GZIP, digest, size),
+            Digests.format(uncompressedOut.getMessageDigest())
+        );
+    }
+
+    /**
+     * Writes the {@code oci-layout} marker and {@code index.json} referencing the given manifests.
+     */
+    void writeIndex(List<Map<String, Object>> manifests) throws IOException {
+        Files.createDirectories(root);
+        Files.writeString(root.resolve("oci-layout"), JsonOutput.toJson(Map.of("imageLayoutVersion", "1.0.0")));
+
+        final Map<String, Object> index = new LinkedHashMap<>();
+        index.put("schemaVersion", 2);
+        index.put("mediaType", RegistryClient.OCI_INDEX);
+        index.put("manifests", manifests);
+        Files.writeString(root.resolve("index.json"), JsonOutput.toJson(index));
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> readIndex() throws IOException {
+        final Map<String, Object> index = (Map<String, Object>) new JsonSlurper().parse(root.resolve("index.json").toFile());
+        return (List<Map<String, Object>>) index.get("manifests");
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> readJsonBlob(String digest) throws IOException {
+        return (Map<String, Object>) new JsonSlurper().parse(blobPath(digest).toFile());
+    }
+
+    /**
+     * Removes blobs that are no longer referenced, such as layers from previous builds.
+     */
+    void retainBlobs(Set<String> digests) throws IOException {
+        final Path blobsDir = root.resolve("blobs/sha256");
+        if (!Files.isDirectory(blobsDir)) {
+            return;
+        }
+        final Set<String> retainedNames = digests.stream()
+            .map(Digests::hex)
+            .collect(Collectors.toSet());
+        try (Stream<Path> blobs = Files.list(blobsDir)) {
+            for (final Path blob : blobs.toList()) {
+                if (!retainedNames.contains(blob.getFileName().toString())) {
+                    Files.delete(blob);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the layout as a tarball loadable by {@code docker load}, which includes Docker's
+     * {@code manifest.json} in addition to the OCI layout files.
+     */
+    void writeTarball(Path tarball, List<Map<String, Object>> dockerManifest) throws IOException {
+        Files.createDirectories(tarball.getParent());
+        try (TarWriter tarWriter = new TarWriter(new BufferedOutputStream(Files.newOutputStream(tarball), BUFFER_SIZE))) {
+            tarWriter.addFile("manifest.json", JsonOutput.toJson(dockerManifest).getBytes(StandardCharsets.UTF_8));
+            tarWriter.addDirectoryContents(root, "");
+        }
+    }
+}
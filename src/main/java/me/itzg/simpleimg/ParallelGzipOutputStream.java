@@ -0,0 +1,161 @@
+package me.itzg.simpleimg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a single-member gzip stream, compressing fixed-size blocks of input concurrently in the same
+ * way as <a href="https://zlib.net/pigz/">pigz</a>. Each block is primed with the last 32 KiB of the
+ * previous block and ends on a byte boundary with a sync flush, so the concatenated blocks form one
+ * standard deflate stream that any gzip implementation can decompress.
+ * <p>
+ * The output only depends on the input, block size, and level, so it is reproducible regardless of
+ * how blocks were scheduled.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = {(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream out;
+    private final ForkJoinPool pool;
+    private final int level;
+    private final int blockSize;
+    private final int maxPending;
+    private final CRC32 crc = new CRC32();
+    private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private long uncompressedSize;
+    private boolean closed;
+
+    ParallelGzipOutputStream(OutputStream out) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    ParallelGzipOutputStream(OutputStream out, int level, int blockSize) throws IOException {
+        this(out, level, blockSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool compresses the blocks, with up to twice its parallelism held in memory at once
+     */
+    ParallelGzipOutputStream(OutputStream out, int level, int blockSize, ForkJoinPool pool) throws IOException {
+        this.out = out;
+        this.pool = pool;
+        this.level = level;
+        this.blockSize = blockSize;
+        // bound the memory held by blocks waiting to be written
+        this.maxPending = pool.getParallelism() * 2;
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        uncompressedSize += len;
+
+        while (len > 0) {
+            final int count = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+            if (blockLength == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        // the final block is always submitted, even when empty, since it marks the end of the deflate stream
+        submitBlock(true);
+        while (!pending.isEmpty()) {
+            writeNextPending();
+        }
+
+        final long checksum = crc.getValue();
+        out.write(new byte[]{
+            (byte) checksum, (byte) (checksum >> 8), (byte) (checksum >> 16), (byte) (checksum >> 24),
+            (byte) uncompressedSize, (byte) (uncompressedSize >> 8), (byte) (uncompressedSize >> 16), (byte) (uncompressedSize >> 24)
+        });
+        out.close();
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        final byte[] input = block;
+        final int inputLength = blockLength;
+        final byte[] primer = dictionary;
+
+        dictionary = inputLength >= DICTIONARY_SIZE ?
+            Arrays.copyOfRange(input, inputLength - DICTIONARY_SIZE, inputLength) : null;
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        pending.add(CompletableFuture.supplyAsync(() -> deflate(input, inputLength, primer, last), pool));
+        while (pending.size() > maxPending) {
+            writeNextPending();
+        }
+    }
+
+    private void writeNextPending() throws IOException {
+        try {
+            out.write(pending.removeFirst().join());
+        } catch (CompletionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    private byte[] deflate(byte[] input, int length, byte[] primer, boolean last) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (primer != null) {
+                deflater.setDictionary(primer);
+            }
+            deflater.setInput(input, 0, length);
+
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            final byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
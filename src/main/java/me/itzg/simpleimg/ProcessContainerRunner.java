@@ -0,0 +1,77 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for a container runtime by running a local command in place of each container, such as
+ * {@code java -jar build/libs/app.jar} or a script that imitates the application, so that startup
+ * benchmarks can run without a Docker daemon. The image isn't used.
+ */
+public class ProcessContainerRunner implements ContainerRunner {
+
+    private static final Pattern PEAK_RSS = Pattern.compile("^VmHWM:\\s+(\\d+)\\s+kB", Pattern.MULTILINE);
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private final List<String> command;
+
+    public ProcessContainerRunner(List<String> command) {
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("The command of the process runner is required");
+        }
+        this.command = List.copyOf(command);
+    }
+
+    @Override
+    public boolean requiresImage() {
+        return false;
+    }
+
+    @Override
+    public Container start(String image, Integer port) throws IOException {
+        final Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .start();
+        return new Container() {
+            @Override
+            public InputStream getOutput() {
+                return process.getInputStream();
+            }
+
+            @Override
+            public long peakRssBytes() throws IOException {
+                final Path status = Path.of("/proc", Long.toString(process.pid()), "status");
+                return Files.isReadable(status) ? parsePeakRss(Files.readString(status)) : -1;
+            }
+
+            @Override
+            public void close() {
+                process.descendants().forEach(ProcessHandle::destroy);
+                process.destroy();
+                try {
+                    if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroyForcibly();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param status the content of a Linux {@code /proc/<pid>/status} file
+     * @return the peak resident set size in bytes, or -1 if not present
+     */
+    static long parsePeakRss(String status) {
+        final Matcher matcher = PEAK_RSS.matcher(status);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) * 1024 : -1;
+    }
+}
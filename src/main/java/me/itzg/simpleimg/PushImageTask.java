@@ -1,9 +1,23 @@
 package me.itzg.simpleimg;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
 import org.gradle.work.DisableCachingByDefault;
 
 @DisableCachingByDefault(
@@ -11,30 +25,153 @@ import org.gradle.work.DisableCachingByDefault;
 )
 public abstract class PushImageTask extends ImageHandlingTask {
 
+    /**
+     * When enabled, the assembled OCI image layout is pushed directly to the registry rather than
+     * using {@code docker push}.
+     */
+    @Input
+    abstract Property<Boolean> getNativePush();
+
+    @Optional
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    abstract DirectoryProperty getOciLayoutDirectory();
+
     @Inject
     protected abstract ExecOperations getExecOperations();
 
+    @Override
+    void apply(SharedProperties sharedProperties) {
+        getNativePush().set(sharedProperties.getNativePush());
+
+        super.apply(sharedProperties);
+    }
+
     @TaskAction
-    void push() {
-        var fullImageName = calculateFullImageName();
+    void push() throws IOException {
+        final List<String> tags = getTags().get();
+        if (tags.isEmpty()) {
+            return;
+        }
+        final ImageReference image = ImageReference.parse(calculateFullImageName());
+
+        final long started = System.nanoTime();
+        if (getNativePush().get()) {
+            final RegistryClient registryClient = new RegistryClient(image.registry(), getExecOperations());
+            pushNative(new ImagePusher(registryClient, Defaults.DEFAULT_PUSH_PARALLELISM, getLogger()), image, tags);
+        }
+        else {
+            pushWithDocker(image, tags);
+        }
+        BuildTimingService.record(getTimingService(), this, "push", started);
+    }
+
+    /**
+     * Pushes the first tag with {@code docker push} and applies the others by manifest copies. When the
+     * registry can't be accessed directly, such as when only the Docker daemon is configured for it, every
+     * tag is pushed with {@code docker push} instead.
+     */
+    private void pushWithDocker(ImageReference image, List<String> tags) {
+        final String fullImageName = calculateFullImageName();
+        final ImageReference firstTarget = image.withTag(tags.get(0));
+
+        final RegistryClient registryClient;
+        final String remoteDigest;
+        try {
+            registryClient = new RegistryClient(image.registry(), getExecOperations());
+            remoteDigest = registryClient.manifestDigest(image.repository(), firstTarget.tag());
+        } catch (IOException e) {
+            getLogger().warn("Pushing each tag with docker since registry {} can't be accessed directly: {}",
+                image.registry(), e.getMessage());
+            tags.forEach(tag -> dockerPush(fullImageName + ":" + tag));
+            return;
+        }
 
-        for (final String tag : getTags().get()) {
-            getLogger().info("Pushing image {}:{}", fullImageName, tag);
+        if (remoteDigest != null && localRepoDigests(fullImageName + ":" + firstTarget.tag()).stream()
+            .anyMatch(repoDigest -> repoDigest.endsWith("@" + remoteDigest))) {
+            getLogger().info("Skipping push of {} since it is already at {}", firstTarget, remoteDigest);
+        }
+        else {
+            dockerPush(fullImageName + ":" + firstTarget.tag());
+        }
 
-            getExecOperations().exec(spec -> {
-                spec.executable("docker");
+        if (tags.size() > 1) {
+            final List<String> otherTags = tags.subList(1, tags.size());
+            try {
+                final RegistryClient.Manifest manifest = registryClient.getManifest(image.repository(), firstTarget.tag());
+                new ImagePusher(registryClient, Defaults.DEFAULT_PUSH_PARALLELISM, getLogger())
+                    .retag(image, manifest, otherTags);
+            } catch (IOException e) {
+                getLogger().warn("Pushing the other tags with docker since retagging in registry {} failed: {}",
+                    image.registry(), e.getMessage());
+                otherTags.forEach(tag -> dockerPush(fullImageName + ":" + tag));
+            }
+        }
+    }
 
-                final ArrayList<Object> args = new ArrayList<>();
-                args.add("push");
-                if (!getLogger().isInfoEnabled()) {
-                    args.add("--quiet");
-                }
-                args.add(fullImageName + ":" + tag);
-                spec.args(args);
-            }).assertNormalExitValue();
+    private void dockerPush(String imageTag) {
+        getLogger().info("Pushing image {}", imageTag);
+
+        getExecOperations().exec(spec -> {
+            spec.executable("docker");
+
+            final ArrayList<Object> args = new ArrayList<>();
+            args.add("push");
+            if (!getLogger().isInfoEnabled()) {
+                args.add("--quiet");
+            }
+            args.add(imageTag);
+            spec.args(args);
+        }).assertNormalExitValue();
+    }
 
+    /**
+     * @return the {@code name@digest} references the Docker daemon recorded when the local image was
+     * last pushed or pulled, which is empty for a freshly built image
+     */
+    private List<String> localRepoDigests(String imageName) {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ExecResult result = getExecOperations().exec(spec -> {
+            spec.commandLine("docker", "image", "inspect", "--format", "{{range .RepoDigests}}{{println .}}{{end}}", imageName);
+            spec.setStandardOutput(stdout);
+            spec.setErrorOutput(OutputStream.nullOutputStream());
+            spec.setIgnoreExitValue(true);
+        });
+        if (result.getExitValue() != 0) {
+            return List.of();
+        }
+        return stdout.toString(StandardCharsets.UTF_8).lines()
+            .map(String::trim)
+            .filter(line -> !line.isEmpty())
+            .toList();
+    }
+
+    private void pushNative(ImagePusher pusher, ImageReference image, List<String> tags) throws IOException {
+        final OciLayout layout = new OciLayout(getOciLayoutDirectory().get().getAsFile().toPath());
+        final List<Map<String, Object>> indexManifests = layout.readIndex();
+        if (indexManifests.isEmpty()) {
+            throw new IllegalArgumentException("OCI image layout has no manifests: " + layout.getRoot());
+        }
+        final Map<String, Object> entry = indexManifests.get(0);
+        final OciLayout.Descriptor manifest = new OciLayout.Descriptor(
+            (String) entry.get("mediaType"), (String) entry.get("digest"), ((Number) entry.get("size")).longValue()
+        );
+
+        pusher.push(layout, image, tags, manifest, mountableBaseRepository(layout, manifest, image));
+    }
 
+    /**
+     * @return the base image's repository when it's on the same registry, so its layers can be mounted
+     */
+    private static String mountableBaseRepository(OciLayout layout, OciLayout.Descriptor manifest, ImageReference image)
+        throws IOException {
+        final Map<String, Object> annotations = AssembleImageTask.castMap(layout.readJsonBlob(manifest.digest()).get("annotations"));
+        final Object baseName = annotations != null ? annotations.get(AssembleImageTask.BASE_NAME_ANNOTATION) : null;
+        if (baseName == null) {
+            return null;
         }
+        final ImageReference baseImage = ImageReference.parse(baseName.toString());
+        return baseImage.registry().equals(image.registry()) ? baseImage.repository() : null;
     }
 
 }
@@ -0,0 +1,426 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonSlurper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.gradle.process.ExecOperations;
+
+/**
+ * A minimal client of the
+ * <a href="https://github.com/opencontainers/distribution-spec/blob/main/spec.md">OCI distribution API</a>
+ * that handles the token authentication flow used by Docker Hub and most other registries.
+ */
+class RegistryClient {
+
+    static final String OCI_INDEX = "application/vnd.oci.image.index.v1+json";
+    static final String OCI_MANIFEST = "application/vnd.oci.image.manifest.v1+json";
+    static final String DOCKER_MANIFEST_LIST = "application/vnd.docker.distribution.manifest.list.v2+json";
+    static final String DOCKER_MANIFEST = "application/vnd.docker.distribution.manifest.v2+json";
+
+    private static final String MANIFEST_ACCEPT = String.join(",",
+        OCI_INDEX, OCI_MANIFEST, DOCKER_MANIFEST_LIST, DOCKER_MANIFEST
+    );
+    private static final Pattern CHALLENGE_PARAM = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+    private static final int MAX_REDIRECTS = 5;
+    /**
+     * Identifies this client to the token endpoint, which the OAuth2 flow requires
+     */
+    private static final String OAUTH_CLIENT_ID = "simple-boot-image-gradle-plugin";
+
+    /**
+     * @param mediaType the media type reported by the registry
+     * @param digest the digest of the content
+     * @param content the raw bytes of the manifest, which are needed as-is to preserve its digest
+     */
+    record Manifest(String mediaType, String digest, byte[] content) {
+
+        boolean isIndex() {
+            return mediaType.equals(OCI_INDEX) || mediaType.equals(DOCKER_MANIFEST_LIST);
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> parse() {
+            return (Map<String, Object>) new JsonSlurper().parse(content);
+        }
+    }
+
+    private final HttpClient httpClient;
+    private final String registry;
+    private final String baseUrl;
+    private final RegistryCredentials credentials;
+    /**
+     * Authorization header values keyed by token scope
+     */
+    private final Map<String, String> authorizations = new ConcurrentHashMap<>();
+
+    /**
+     * @param execOperations runs the credential helper, if one is configured for the registry
+     */
+    RegistryClient(String registry, ExecOperations execOperations) throws IOException {
+        this(registry, RegistryCredentials.lookup(registry, execOperations));
+    }
+
+    RegistryClient(String registry, RegistryCredentials credentials) {
+        this.registry = registry;
+        this.credentials = credentials;
+        final String apiHost = registry.equals(ImageReference.DOCKER_HUB) ? "registry-1.docker.io" : registry;
+        // same as the Docker daemon, localhost registries are implicitly insecure
+        this.baseUrl = (isLocal(apiHost) ? "http://" : "https://") + apiHost + "/v2/";
+        this.httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(30))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    }
+
+    String getRegistry() {
+        return registry;
+    }
+
+    Manifest getManifest(String repository, String reference) throws IOException {
+        final HttpResponse<byte[]> response = send(
+            HttpRequest.newBuilder(uri(repository, "manifests/" + reference))
+                .header("Accept", MANIFEST_ACCEPT)
+                .GET(),
+            BodyHandlers.ofByteArray(), repository, "pull"
+        );
+        expectStatus(response, 200, "get manifest " + repository + ":" + reference);
+
+        final byte[] content = response.body();
+        final String mediaType = response.headers().firstValue("Content-Type")
+            .map(value -> value.split(";")[0].trim())
+            .orElseGet(() -> String.valueOf(new JsonSlurper().parse(content) instanceof Map<?, ?> map ? map.get("mediaType") : null));
+        return new Manifest(mediaType, Digests.sha256(content), content);
+    }
+
+    /**
+     * Downloads the blob, verifying its digest, and moves it into place only when complete.
+     */
+    void getBlob(String repository, String digest, Path target) throws IOException {
+        HttpResponse<InputStream> response = send(
+            HttpRequest.newBuilder(uri(repository, "blobs/" + digest)).GET(),
+            BodyHandlers.ofInputStream(), repository, "pull"
+        );
+        for (int redirects = 0; isRedirect(response.statusCode()) && redirects < MAX_REDIRECTS; redirects++) {
+            response.body().close();
+            // blob storage redirects are pre-signed and must not be sent registry credentials
+            final URI location = response.uri().resolve(response.headers().firstValue("Location")
+                .orElseThrow(() -> new IOException("Redirect is missing location for blob " + digest)));
+            response = sendUnchecked(HttpRequest.newBuilder(location).GET().build(), BodyHandlers.ofInputStream());
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException(String.format("Failed to get blob %s from %s/%s: HTTP %d",
+                digest, registry, repository, response.statusCode()));
+        }
+
+        final Path tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.createDirectories(target.getParent());
+        final String actualDigest;
+        try (DigestInputStream in = new DigestInputStream(response.body(), Digests.newSha256())) {
+            Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            actualDigest = Digests.format(in.getMessageDigest());
+        }
+        if (!actualDigest.equals(digest)) {
+            Files.delete(tempFile);
+            throw new IOException(String.format("Blob from %s/%s has digest %s but expected %s",
+                registry, repository, actualDigest, digest));
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the digest of the manifest the reference currently points to, or {@code null} if none
+     */
+    String manifestDigest(String repository, String reference) throws IOException {
+        final HttpResponse<Void> response = send(
+            HttpRequest.newBuilder(uri(repository, "manifests/" + reference))
+                .header("Accept", MANIFEST_ACCEPT)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()),
+            BodyHandlers.discarding(), repository, "pull"
+        );
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        expectStatus(response, 200, "check manifest " + repository + ":" + reference);
+        return response.headers().firstValue("Docker-Content-Digest").orElse(null);
+    }
+
+    void putManifest(String repository, String reference, String mediaType, byte[] content) throws IOException {
+        final HttpResponse<byte[]> response = send(
+            HttpRequest.newBuilder(uri(repository, "manifests/" + reference))
+                .header("Content-Type", mediaType)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(content)),
+            BodyHandlers.ofByteArray(), repository, "pull,push"
+        );
+        expectStatus(response, 201, "put manifest " + repository + ":" + reference);
+    }
+
+    boolean hasBlob(String repository, String digest) throws IOException {
+        final HttpResponse<Void> response = send(
+            HttpRequest.newBuilder(uri(repository, "blobs/" + digest))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()),
+            BodyHandlers.discarding(), repository, "pull,push"
+        );
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        expectStatus(response, 200, "check blob " + digest + " in " + repository);
+        return true;
+    }
+
+    /**
+     * Starts a blob upload, first attempting to mount the blob from another repository of the same
+     * registry when {@code mountFrom} is given.
+     *
+     * @return the location for uploading the blob, or {@code null} if it was mounted
+     */
+    URI startUpload(String repository, String digest, String mountFrom) throws IOException {
+        final List<String> scopes = new ArrayList<>();
+        scopes.add(scope(repository, "pull,push"));
+        String path = "blobs/uploads/";
+        if (mountFrom != null) {
+            scopes.add(scope(mountFrom, "pull"));
+            path += "?mount=" + URLEncoder.encode(digest, StandardCharsets.UTF_8)
+                + "&from=" + URLEncoder.encode(mountFrom, StandardCharsets.UTF_8);
+        }
+
+        final HttpResponse<byte[]> response = send(
+            HttpRequest.newBuilder(uri(repository, path))
+                .POST(HttpRequest.BodyPublishers.noBody()),
+            BodyHandlers.ofByteArray(), scopes
+        );
+        if (mountFrom != null && response.statusCode() == 201) {
+            return null;
+        }
+        // when a mount isn't possible, the registry falls back to starting a regular upload
+        expectStatus(response, 202, "start upload of " + digest + " to " + repository);
+        return location(response);
+    }
+
+    /**
+     * @return the location for the next chunk
+     */
+    URI uploadChunk(String repository, URI location, byte[] chunk, int length, long offset) throws IOException {
+        final HttpResponse<byte[]> response = send(
+            HttpRequest.newBuilder(location)
+                .header("Content-Type", "application/octet-stream")
+                .header("Content-Range", offset + "-" + (offset + length - 1))
+                .method("PATCH", HttpRequest.BodyPublishers.ofByteArray(chunk, 0, length)),
+            BodyHandlers.ofByteArray(), repository, "pull,push"
+        );
+        expectStatus(response, 202, "upload chunk to " + repository);
+        return location(response);
+    }
+
+    /**
+     * @return the number of bytes of the upload the registry has received, which is where to resume
+     */
+    long uploadedBytes(String repository, URI location) throws IOException {
+        final HttpResponse<byte[]> response = send(
+            HttpRequest.newBuilder(location).GET(),
+            BodyHandlers.ofByteArray(), repository, "pull,push"
+        );
+        expectStatus(response, 204, "get upload status from " + repository);
+        return response.headers().firstValue("Range")
+            .map(range -> Long.parseLong(range.substring(range.indexOf('-') + 1)) + 1)
+            .orElse(0L);
+    }
+
+    void completeUpload(String repository, URI location, String digest) throws IOException {
+        final String query = (location.getRawQuery() != null ? "&" : "?")
+            + "digest=" + URLEncoder.encode(digest, StandardCharsets.UTF_8);
+        final HttpResponse<byte[]> response = send(
+            HttpRequest.newBuilder(URI.create(location + query))
+                .PUT(HttpRequest.BodyPublishers.noBody()),
+            BodyHandlers.ofByteArray(), repository, "pull,push"
+        );
+        expectStatus(response, 201, "complete upload of " + digest + " to " + repository);
+    }
+
+    private static URI location(HttpResponse<?> response) throws IOException {
+        return response.uri().resolve(response.headers().firstValue("Location")
+            .orElseThrow(() -> new IOException("Registry response is missing the upload location")));
+    }
+
+    URI uri(String repository, String path) {
+        return URI.create(baseUrl + repository + "/" + path);
+    }
+
+    /**
+     * Sends the request, negotiating a token for the given repository and actions when the registry
+     * challenges for authentication.
+     */
+    <T> HttpResponse<T> send(HttpRequest.Builder requestBuilder, BodyHandler<T> bodyHandler,
+        String repository, String actions
+    ) throws IOException {
+        return send(requestBuilder, bodyHandler, List.of(scope(repository, actions)));
+    }
+
+    /**
+     * Sends the request, negotiating a token for all the given scopes, such as when a blob is mounted
+     * from another repository.
+     */
+    <T> HttpResponse<T> send(HttpRequest.Builder requestBuilder, BodyHandler<T> bodyHandler,
+        List<String> scopes
+    ) throws IOException {
+        final String scopesKey = String.join(" ", scopes);
+        final String authorization = authorizations.get(scopesKey);
+        final HttpRequest.Builder retryBuilder = requestBuilder.copy();
+        if (authorization != null) {
+            requestBuilder.header("Authorization", authorization);
+        }
+
+        final HttpResponse<T> response = sendUnchecked(requestBuilder.build(), bodyHandler);
+        if (response.statusCode() != 401) {
+            return response;
+        }
+        discard(response);
+
+        final String challenge = response.headers().firstValue("WWW-Authenticate")
+            .orElseThrow(() -> new IOException("Registry " + registry + " requires authentication without a challenge"));
+        final String newAuthorization = authorize(challenge, scopes);
+        authorizations.put(scopesKey, newAuthorization);
+
+        retryBuilder.header("Authorization", newAuthorization);
+        return sendUnchecked(retryBuilder.build(), bodyHandler);
+    }
+
+    static String scope(String repository, String actions) {
+        return "repository:" + repository + ":" + actions;
+    }
+
+    private String authorize(String challenge, List<String> scopes) throws IOException {
+        if (challenge.regionMatches(true, 0, "Basic", 0, 5)) {
+            if (credentials.isAnonymous()) {
+                throw new IOException("Registry " + registry + " requires credentials, but none are configured");
+            }
+            if (credentials.isIdentityToken()) {
+                throw new IOException("Registry " + registry + " requires basic authentication, which can't use an identity token");
+            }
+            return credentials.basicAuthorization();
+        }
+
+        final Map<String, String> params = new HashMap<>();
+        final Matcher matcher = CHALLENGE_PARAM.matcher(challenge);
+        while (matcher.find()) {
+            params.put(matcher.group(1), matcher.group(2));
+        }
+        final String realm = params.get("realm");
+        if (realm == null) {
+            throw new IOException("Unsupported authentication challenge from " + registry + ": " + challenge);
+        }
+
+        if (credentials.isIdentityToken()) {
+            return "Bearer " + exchangeIdentityToken(realm, params.get("service"), scopes);
+        }
+
+        final StringBuilder tokenUrl = new StringBuilder(realm);
+        char separator = realm.contains("?") ? '&' : '?';
+        for (final String scope : scopes) {
+            tokenUrl.append(separator).append("scope=").append(URLEncoder.encode(scope, StandardCharsets.UTF_8));
+            separator = '&';
+        }
+        if (params.containsKey("service")) {
+            tokenUrl.append(separator).append("service=").append(URLEncoder.encode(params.get("service"), StandardCharsets.UTF_8));
+        }
+
+        final HttpRequest.Builder tokenRequest = HttpRequest.newBuilder(URI.create(tokenUrl.toString())).GET();
+        if (!credentials.isAnonymous()) {
+            tokenRequest.header("Authorization", credentials.basicAuthorization());
+        }
+        final HttpResponse<byte[]> response = sendUnchecked(tokenRequest.build(), BodyHandlers.ofByteArray());
+        expectStatus(response, 200, "get token for " + scopes);
+
+        final Map<?, ?> tokenResponse = (Map<?, ?>) new JsonSlurper().parse(response.body());
+        final Object token = tokenResponse.get("token") != null ? tokenResponse.get("token") : tokenResponse.get("access_token");
+        if (token == null) {
+            throw new IOException("Token response from " + realm + " did not include a token");
+        }
+        return "Bearer " + token;
+    }
+
+    /**
+     * Exchanges the identity token, which is an OAuth2 refresh token, for an access token using the
+     * <a href="https://distribution.github.io/distribution/spec/auth/oauth/">OAuth2 token flow</a>.
+     */
+    private String exchangeIdentityToken(String realm, String service, List<String> scopes) throws IOException {
+        final StringBuilder form = new StringBuilder("grant_type=refresh_token")
+            .append("&client_id=").append(URLEncoder.encode(OAUTH_CLIENT_ID, StandardCharsets.UTF_8))
+            .append("&refresh_token=").append(URLEncoder.encode(credentials.secret(), StandardCharsets.UTF_8))
+            .append("&scope=").append(URLEncoder.encode(String.join(" ", scopes), StandardCharsets.UTF_8));
+        if (service != null) {
+            form.append("&service=").append(URLEncoder.encode(service, StandardCharsets.UTF_8));
+        }
+
+        final HttpResponse<byte[]> response = sendUnchecked(
+            HttpRequest.newBuilder(URI.create(realm))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form.toString()))
+                .build(),
+            BodyHandlers.ofByteArray()
+        );
+        expectStatus(response, 200, "exchange identity token for " + scopes);
+
+        final Object token = ((Map<?, ?>) new JsonSlurper().parse(response.body())).get("access_token");
+        if (token == null) {
+            throw new IOException("Token response from " + realm + " did not include an access token");
+        }
+        return token.toString();
+    }
+
+    <T> HttpResponse<T> sendUnchecked(HttpRequest request, BodyHandler<T> bodyHandler) throws IOException {
+        try {
+            return httpClient.send(request, bodyHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while accessing registry " + registry, e);
+        }
+    }
+
+    void expectStatus(HttpResponse<?> response, int expected, String operation) throws IOException {
+        if (response.statusCode() != expected) {
+            throw new IOException(String.format("Failed to %s on %s: HTTP %d %s",
+                operation, registry, response.statusCode(), describeBody(response)));
+        }
+    }
+
+    private static String describeBody(HttpResponse<?> response) {
+        return response.body() instanceof byte[] bytes ?
+            new String(bytes, StandardCharsets.UTF_8) : "";
+    }
+
+    private static void discard(HttpResponse<?> response) throws IOException {
+        if (response.body() instanceof InputStream in) {
+            in.close();
+        }
+    }
+
+    private static boolean isRedirect(int statusCode) {
+        return statusCode == 301 || statusCode == 302 || statusCode == 303 || statusCode == 307 || statusCode == 308;
+    }
+
+    private static boolean isLocal(String host) {
+        return host.equals("localhost") || host.startsWith("localhost:")
+            || host.equals("127.0.0.1") || host.startsWith("127.0.0.1:");
+    }
+}
@@ -0,0 +1,137 @@
+package me.itzg.simpleimg;
+
+import groovy.json.JsonSlurper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import org.gradle.api.GradleException;
+import org.gradle.process.ExecOperations;
+import org.gradle.process.ExecResult;
+
+/**
+ * Looks up registry credentials the same way the Docker CLI does, from the {@code config.json}
+ * in {@code DOCKER_CONFIG} or {@code ~/.docker}, including credential helpers.
+ * <p>
+ * An identity token, such as from {@code docker login} with an OAuth identity provider, is an OAuth2
+ * refresh token and is exchanged for an access token rather than sent as a password.
+ *
+ * @param username the username, {@link #IDENTITY_TOKEN_USERNAME} for an identity token, or {@code null}
+ * for anonymous access
+ * @param secret the password or identity token
+ */
+record RegistryCredentials(String username, String secret) {
+
+    static final RegistryCredentials ANONYMOUS = new RegistryCredentials(null, null);
+
+    /**
+     * The username credential helpers report for an identity token, same as the Docker CLI
+     */
+    static final String IDENTITY_TOKEN_USERNAME = "<token>";
+
+    private static final String DOCKER_HUB_AUTH_KEY = "https://index.docker.io/v1/";
+
+    static RegistryCredentials identityToken(String identityToken) {
+        return new RegistryCredentials(IDENTITY_TOKEN_USERNAME, identityToken);
+    }
+
+    boolean isAnonymous() {
+        return username == null;
+    }
+
+    boolean isIdentityToken() {
+        return IDENTITY_TOKEN_USERNAME.equals(username);
+    }
+
+    String basicAuthorization() {
+        return "Basic " + Base64.getEncoder().encodeToString(
+            (username + ":" + secret).getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    /**
+     * @param execOperations runs credential helpers
+     */
+    static RegistryCredentials lookup(String registry, ExecOperations execOperations) throws IOException {
+        return lookup(dockerConfigDirectory().resolve("config.json"), registry, execOperations);
+    }
+
+    @SuppressWarnings("unchecked")
+    static RegistryCredentials lookup(Path configFile, String registry, ExecOperations execOperations)
+        throws IOException {
+        if (!Files.isRegularFile(configFile)) {
+            return ANONYMOUS;
+        }
+
+        final Map<String, Object> config = (Map<String, Object>) new JsonSlurper().parse(configFile.toFile());
+        final String authKey = registry.equals(ImageReference.DOCKER_HUB) ? DOCKER_HUB_AUTH_KEY : registry;
+
+        final Map<String, String> credHelpers = (Map<String, String>) config.get("credHelpers");
+        if (credHelpers != null && credHelpers.containsKey(authKey)) {
+            return fromHelper(execOperations, credHelpers.get(authKey), authKey);
+        }
+
+        final Map<String, Map<String, String>> auths = (Map<String, Map<String, String>>) config.get("auths");
+        if (auths != null) {
+            for (final String key : new String[]{authKey, "https://" + authKey, "http://" + authKey}) {
+                final Map<String, String> entry = auths.get(key);
+                if (entry != null && entry.get("identitytoken") != null) {
+                    return identityToken(entry.get("identitytoken"));
+                }
+                if (entry != null && entry.get("auth") != null) {
+                    final String decoded = new String(Base64.getDecoder().decode(entry.get("auth")), StandardCharsets.UTF_8);
+                    final String[] parts = decoded.split(":", 2);
+                    if (parts.length == 2) {
+                        return new RegistryCredentials(parts[0], parts[1]);
+                    }
+                }
+            }
+        }
+
+        final String credsStore = (String) config.get("credsStore");
+        if (credsStore != null) {
+            return fromHelper(execOperations, credsStore, authKey);
+        }
+
+        return ANONYMOUS;
+    }
+
+    private static Path dockerConfigDirectory() {
+        final String dockerConfig = System.getenv("DOCKER_CONFIG");
+        return dockerConfig != null ? Path.of(dockerConfig)
+            : Path.of(System.getProperty("user.home"), ".docker");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RegistryCredentials fromHelper(ExecOperations execOperations, String helper, String serverUrl)
+        throws IOException {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ExecResult result;
+        try {
+            result = execOperations.exec(spec -> {
+                spec.commandLine("docker-credential-" + helper, "get");
+                spec.setStandardInput(new ByteArrayInputStream(serverUrl.getBytes(StandardCharsets.UTF_8)));
+                spec.setStandardOutput(stdout);
+                spec.setErrorOutput(OutputStream.nullOutputStream());
+                spec.setIgnoreExitValue(true);
+            });
+        } catch (GradleException e) {
+            // such as when the helper isn't installed
+            throw new IOException("Failed to run credential helper " + helper, e);
+        }
+        if (result.getExitValue() != 0) {
+            // helper has no credentials for this registry
+            return ANONYMOUS;
+        }
+
+        final Map<String, String> credentials = (Map<String, String>) new JsonSlurper().parse(stdout.toByteArray());
+        final String username = credentials.get("Username");
+        final String secret = credentials.get("Secret");
+        return username != null && secret != null ? new RegistryCredentials(username, secret) : ANONYMOUS;
+    }
+}
@@ -0,0 +1,184 @@
+package me.itzg.simpleimg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.gradle.api.logging.Logger;
+
+/**
+ * Moves the dependency jars that every image of a group has in common into a shared base image,
+ * which is added as another bake target. The images of a group share the same base image and
+ * platforms, and each image is built {@code FROM} the shared target with a Dockerfile-specific
+ * ignore file that leaves the shared jars out of its own {@code dependencies} layer.
+ */
+class SharedDependencies {
+
+    /**
+     * Key of the bake target entry, which is removed before baking, that describes the jars of the
+     * target's {@code dependencies} layer.
+     */
+    static final String METADATA_KEY = "x-simple-boot-image";
+    static final String TARGET_PREFIX = "shared-dependencies-";
+
+    private final Path sharedDirectory;
+    private final int minimumTargets;
+    private final Logger logger;
+
+    SharedDependencies(Path sharedDirectory, int minimumTargets, Logger logger) {
+        this.sharedDirectory = sharedDirectory;
+        this.minimumTargets = minimumTargets;
+        this.logger = logger;
+    }
+
+    /**
+     * @param layerDirectory path of the {@code dependencies} layer relative to the context
+     * @param layerDirectoryPath the absolute path of that layer
+     * @return metadata to include with the bake target
+     */
+    static Map<String, Object> describe(String layerDirectory, Path layerDirectoryPath) throws IOException {
+        final Map<String, String> jars = new TreeMap<>();
+        if (Files.isDirectory(layerDirectoryPath)) {
+            try (Stream<Path> files = Files.walk(layerDirectoryPath)) {
+                for (final Path file : files.filter(Files::isRegularFile).toList()) {
+                    jars.put(TarWriter.toEntryName(layerDirectoryPath.relativize(file)), Digests.sha256(file));
+                }
+            }
+        }
+        final Map<String, Object> metadata = new TreeMap<>();
+        metadata.put("dependenciesLayer", layerDirectory);
+        metadata.put("dependencies", jars);
+        return metadata;
+    }
+
+    /**
+     * Adds the shared targets and rewires the targets that use them. The metadata is removed from all targets.
+     */
+    @SuppressWarnings("unchecked")
+    void apply(Map<String, Object> targets) throws IOException {
+        final Map<List<Object>, List<String>> groups = new TreeMap<>(Comparator.comparing(Object::toString));
+        for (final Map.Entry<String, Object> entry : targets.entrySet()) {
+            final Map<String, Object> target = (Map<String, Object>) entry.getValue();
+            if (target.containsKey(METADATA_KEY)) {
+                final Map<String, Object> args = (Map<String, Object>) target.get("args");
+                groups.computeIfAbsent(Arrays.asList(args.get("BASE_IMG"), target.get("platforms")), k -> new ArrayList<>())
+                    .add(entry.getKey());
+            }
+        }
+
+        int groupIndex = 0;
+        for (final Map.Entry<List<Object>, List<String>> group : groups.entrySet()) {
+            final List<String> members = group.getValue();
+            if (members.size() < minimumTargets) {
+                continue;
+            }
+            final Map<String, String> shared = commonJars(members.stream()
+                .map(name -> (Map<String, String>) metadata(targets.get(name)).get("dependencies"))
+                .toList()
+            );
+            if (shared.isEmpty()) {
+                continue;
+            }
+
+            final String sharedTarget = TARGET_PREFIX + groupIndex++;
+            logger.info("Sharing {} dependency jars of {} via {}", shared.size(), members, sharedTarget);
+            targets.put(sharedTarget, createSharedTarget(sharedTarget, shared, (Map<String, Object>) targets.get(members.get(0))));
+            for (final String member : members) {
+                useSharedTarget(member, (Map<String, Object>) targets.get(member), sharedTarget, shared.keySet());
+            }
+        }
+
+        for (final Object target : targets.values()) {
+            ((Map<String, Object>) target).remove(METADATA_KEY);
+        }
+    }
+
+    /**
+     * @return the jars that are identical in all the given listings
+     */
+    static Map<String, String> commonJars(List<Map<String, String>> listings) {
+        final Map<String, String> common = new TreeMap<>(listings.get(0));
+        for (final Map<String, String> listing : listings.subList(1, listings.size())) {
+            common.entrySet().removeIf(jar -> !Objects.equals(listing.get(jar.getKey()), jar.getValue()));
+        }
+        return common;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> metadata(Object target) {
+        return (Map<String, Object>) ((Map<String, Object>) target).get(METADATA_KEY);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> createSharedTarget(String name, Map<String, String> jars, Map<String, Object> source)
+        throws IOException {
+        final Path context = sharedDirectory.resolve(name);
+        final Path sourceLayer = Path.of((String) source.get("context"))
+            .resolve((String) metadata(source).get("dependenciesLayer"));
+        for (final String jar : jars.keySet()) {
+            FileLinking.linkOrCopy(sourceLayer.resolve(jar), context.resolve(jar));
+        }
+        // jars from previous runs that are no longer shared
+        try (Stream<Path> files = Files.walk(context)) {
+            for (final Path file : files.filter(Files::isRegularFile).toList()) {
+                if (!jars.containsKey(TarWriter.toEntryName(context.relativize(file)))) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        // outside the context, which only contains the jars
+        final Path dockerfile = sharedDirectory.resolve(name + ".Dockerfile");
+        Files.write(dockerfile, List.of(
+            "ARG BASE_IMG",
+            "FROM ${BASE_IMG}",
+            "WORKDIR /application",
+            "COPY . ./"
+        ));
+
+        final Map<String, Object> target = new TreeMap<>();
+        target.put("context", context.toString());
+        target.put("dockerfile", dockerfile.toString());
+        target.put("args", Map.of("BASE_IMG", ((Map<String, Object>) source.get("args")).get("BASE_IMG")));
+        target.put("pull", source.getOrDefault("pull", false));
+        if (source.containsKey("platforms")) {
+            target.put("platforms", source.get("platforms"));
+        }
+        return target;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void useSharedTarget(String name, Map<String, Object> target, String sharedTarget, Collection<String> sharedJars)
+        throws IOException {
+        final String layerDirectory = (String) metadata(target).get("dependenciesLayer");
+
+        // a Dockerfile-specific ignore file must be alongside a copy of the Dockerfile
+        final Path dockerfile = sharedDirectory.resolve(name + ".Dockerfile");
+        Files.createDirectories(sharedDirectory);
+        Files.copy(Path.of((String) target.get("dockerfile")), dockerfile, StandardCopyOption.REPLACE_EXISTING);
+        Files.write(sharedDirectory.resolve(name + ".Dockerfile.dockerignore"), sharedJars.stream()
+            .map(jar -> layerDirectory + "/" + jar)
+            .collect(Collectors.toList())
+        );
+
+        final Map<String, Object> args = new LinkedHashMap<>((Map<String, Object>) target.get("args"));
+        args.put("BASE_IMG", sharedTarget);
+        target.put("args", args);
+        target.put("dockerfile", dockerfile.toString());
+        final Map<String, Object> contexts = new HashMap<>((Map<String, Object>) target.getOrDefault("contexts", Map.of()));
+        contexts.put(sharedTarget, "target:" + sharedTarget);
+        target.put("contexts", new TreeMap<>(contexts));
+    }
+}
@@ -17,6 +17,8 @@ public abstract class SharedProperties {
 
     abstract Property<String> getBaseImage();
 
+    abstract Property<Integer> getBaseImageResolutionTtlMinutes();
+
     abstract Property<Integer> getExposePort();
 
     abstract Property<String> getFullyQualifiedImageName();
@@ -37,19 +39,59 @@ public abstract class SharedProperties {
 
     abstract Property<Boolean> getPush();
 
+    abstract Property<Boolean> getManagedCache();
+
+    abstract Property<Integer> getManagedCacheMaxSizeMb();
+
+    abstract Property<Integer> getManagedCacheMaxAgeDays();
+
+    abstract Property<Boolean> getNativePush();
+
     abstract ListProperty<String> getPlatforms();
 
     abstract Property<Boolean> getLayered();
 
+    abstract Property<Boolean> getIncrementalExtraction();
+
+    abstract Property<String> getLaunchMode();
+
+    abstract Property<Boolean> getClassDataSharing();
+
+    abstract Property<Boolean> getTimingReport();
+
+    abstract Property<Integer> getLayerCacheMaxSizeMb();
+
+    abstract Property<String> getLayerCompression();
+
+    abstract Property<Integer> getLayerCompressionLevel();
+
+    abstract Property<Integer> getDependencyStoreMaxSizeMb();
+
     @Nested
     abstract ImageLabels getLabels();
 
+    @Nested
+    abstract JvmTuning getJvmTuning();
+
+    @Nested
+    abstract SizeBudgets getSizeBudgets();
+
+    @Nested
+    abstract StartupBenchmark getStartupBenchmark();
+
+    abstract Property<Boolean> getUpdateStartupBaseline();
+
     @Inject
     public SharedProperties(Project project, BootImageExtension extension) {
         getBaseImage().value(
             fromGradleProperty(project, "imageBase")
                 .orElse(extension.getBaseImage())
         );
+        getBaseImageResolutionTtlMinutes().value(
+            fromGradleProperty(project, "imageBaseResolutionTtlMinutes")
+                .map(Integer::parseInt)
+                .orElse(extension.getBaseImageResolutionTtlMinutes())
+        );
         getExposePort().value(extension.getExposePort());
         getFullyQualifiedImageName().value(
             // as provided by skaffold
@@ -90,6 +132,24 @@ public abstract class SharedProperties {
                 .map(Boolean::parseBoolean)
                 .orElse(extension.getPush())
         );
+        getManagedCache().value(
+            fromBooleanGradleProperty(project, "imageManagedCache")
+                .orElse(extension.getManagedCache())
+        );
+        getManagedCacheMaxSizeMb().value(
+            fromGradleProperty(project, "imageManagedCacheMaxSizeMb")
+                .map(Integer::parseInt)
+                .orElse(extension.getManagedCacheMaxSizeMb())
+        );
+        getManagedCacheMaxAgeDays().value(
+            fromGradleProperty(project, "imageManagedCacheMaxAgeDays")
+                .map(Integer::parseInt)
+                .orElse(extension.getManagedCacheMaxAgeDays())
+        );
+        getNativePush().value(
+            fromBooleanGradleProperty(project, "imageNativePush")
+                .orElse(extension.getNativePush())
+        );
         getPlatforms().value(
             fromListGradleProperty(project, "imagePlatforms")
                 .orElse(extension.getPlatforms())
@@ -98,7 +158,101 @@ public abstract class SharedProperties {
             fromBooleanGradleProperty(project, "imageLayered")
                 .orElse(extension.getLayered())
         );
+        getClassDataSharing().value(
+            fromBooleanGradleProperty(project, "imageClassDataSharing")
+                .orElse(extension.getClassDataSharing())
+        );
+        getTimingReport().value(
+            fromBooleanGradleProperty(project, "imageTimingReport")
+                .orElse(extension.getTimingReport())
+        );
+        getIncrementalExtraction().value(
+            fromBooleanGradleProperty(project, "imageIncrementalExtraction")
+                .orElse(extension.getIncrementalExtraction())
+        );
+        getLaunchMode().value(
+            fromGradleProperty(project, "imageLaunchMode")
+                .orElse(extension.getLaunchMode())
+        );
+        getLayerCacheMaxSizeMb().value(
+            fromGradleProperty(project, "imageLayerCacheMaxSizeMb")
+                .map(Integer::parseInt)
+                .orElse(extension.getLayerCacheMaxSizeMb())
+        );
+        getLayerCompression().value(
+            fromGradleProperty(project, "imageLayerCompression")
+                .orElse(extension.getLayerCompression())
+        );
+        getLayerCompressionLevel().value(
+            fromGradleProperty(project, "imageLayerCompressionLevel")
+                .map(Integer::parseInt)
+                .orElse(extension.getLayerCompressionLevel())
+        );
+        getDependencyStoreMaxSizeMb().value(
+            fromGradleProperty(project, "imageDependencyStoreMaxSizeMb")
+                .map(Integer::parseInt)
+                .orElse(extension.getDependencyStoreMaxSizeMb())
+        );
         applyLabels(project, extension.getLabels());
+        applyJvmTuning(project, extension.getJvmTuning());
+        applySizeBudgets(project, extension.getSizeBudgets());
+        applyStartupBenchmark(project, extension.getStartupBenchmark());
+    }
+
+    private void applyStartupBenchmark(Project project, StartupBenchmark extension) {
+        getStartupBenchmark().getRunner().value(extension.getRunner());
+        getStartupBenchmark().getIterations().value(
+            fromGradleProperty(project, "imageStartupIterations")
+                .map(Integer::parseInt)
+                .orElse(extension.getIterations())
+        );
+        getStartupBenchmark().getWarmupIterations().value(extension.getWarmupIterations());
+        getStartupBenchmark().getReadyLogPattern().value(extension.getReadyLogPattern());
+        getStartupBenchmark().getReadyUrl().value(
+            fromGradleProperty(project, "imageStartupReadyUrl")
+                .orElse(extension.getReadyUrl())
+        );
+        getStartupBenchmark().getTimeoutSeconds().value(extension.getTimeoutSeconds());
+        getStartupBenchmark().getMaxRegressionPercent().value(
+            fromGradleProperty(project, "imageStartupMaxRegressionPercent")
+                .map(Double::parseDouble)
+                .orElse(extension.getMaxRegressionPercent())
+        );
+        getUpdateStartupBaseline().value(
+            fromBooleanGradleProperty(project, "imageStartupUpdateBaseline")
+                .orElse(false)
+        );
+    }
+
+    private void applySizeBudgets(Project project, SizeBudgets extension) {
+        getSizeBudgets().getLayerMaxSizeMb().value(extension.getLayerMaxSizeMb());
+        getSizeBudgets().getTotalMaxSizeMb().value(
+            fromGradleProperty(project, "imageTotalMaxSizeMb")
+                .map(Integer::parseInt)
+                .orElse(extension.getTotalMaxSizeMb())
+        );
+        getSizeBudgets().getImageMaxSizeMb().value(
+            fromGradleProperty(project, "imageMaxSizeMb")
+                .map(Integer::parseInt)
+                .orElse(extension.getImageMaxSizeMb())
+        );
+    }
+
+    private void applyJvmTuning(Project project, JvmTuning extension) {
+        getJvmTuning().getMemoryLimitMb().value(
+            fromGradleProperty(project, "imageMemoryLimitMb")
+                .map(Integer::parseInt)
+                .orElse(extension.getMemoryLimitMb())
+        );
+        getJvmTuning().getCpuLimit().value(
+            fromGradleProperty(project, "imageCpuLimit")
+                .map(Double::parseDouble)
+                .orElse(extension.getCpuLimit())
+        );
+        getJvmTuning().getProfile().value(
+            fromGradleProperty(project, "imageJvmProfile")
+                .orElse(extension.getProfile())
+        );
     }
 
     private void applyLabels(Project project, ImageLabels extension) {
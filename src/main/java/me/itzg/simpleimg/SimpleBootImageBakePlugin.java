@@ -0,0 +1,58 @@
+package me.itzg.simpleimg;
+
+import java.util.Map;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.attributes.Usage;
+
+/**
+ * Applied to the root project to build the simple boot images of all projects with a single
+ * {@code docker buildx bake}.
+ */
+@SuppressWarnings("unused")
+public class SimpleBootImageBakePlugin implements Plugin<Project> {
+
+    public static final String EXTENSION_NAME = "simpleBootImageBake";
+    public static final String BAKE_TASK_NAME = "bakeSimpleBootImages";
+
+    static final String BAKE_TARGET_USAGE = "simple-boot-image-bake-target";
+    static final String BAKE_TARGETS_CONFIGURATION = "simpleBootImageBakeTargets";
+
+    protected static final String BAKE_FILE_PATH = "simpleBootImage-bake.json";
+    protected static final String SHARED_PATH = "simpleBootImage-shared";
+
+    @Override
+    public void apply(Project project) {
+        final BakeExtension extension = project.getExtensions().create(EXTENSION_NAME, BakeExtension.class);
+
+        final Configuration bakeTargets = project.getConfigurations().create(BAKE_TARGETS_CONFIGURATION, configuration -> {
+            configuration.setCanBeConsumed(false);
+            configuration.setCanBeResolved(true);
+            configuration.attributes(attributes ->
+                attributes.attribute(Usage.USAGE_ATTRIBUTE, project.getObjects().named(Usage.class, BAKE_TARGET_USAGE))
+            );
+        });
+        project.getAllprojects().forEach(candidate -> project.getDependencies().add(
+            BAKE_TARGETS_CONFIGURATION, project.getDependencies().project(Map.of("path", candidate.getPath()))
+        ));
+
+        project.getTasks().register(BAKE_TASK_NAME, BakeImagesTask.class, task -> {
+            task.setGroup(SimpleBootImagePlugin.GROUP);
+            task.setDescription("Builds the simple boot images of all projects with one buildx bake");
+
+            // lenient, since only the projects that apply the simple boot image plugin provide a bake target
+            task.getTargetFiles().from(
+                bakeTargets.getIncoming().artifactView(view -> view.setLenient(true)).getFiles()
+            );
+            task.getBakeFile().convention(project.getLayout().getBuildDirectory().file(BAKE_FILE_PATH));
+            task.getSharedDirectory().convention(project.getLayout().getBuildDirectory().dir(SHARED_PATH));
+            task.getSharedDependencies().set(
+                project.getProviders().gradleProperty("imageSharedDependencies")
+                    .map(Boolean::parseBoolean)
+                    .orElse(extension.getSharedDependencies())
+            );
+            task.getSharedDependenciesMinimumImages().set(extension.getSharedDependenciesMinimumImages());
+        });
+    }
+}
@@ -1,14 +1,19 @@
 package me.itzg.simpleimg;
 
-
+import java.io.File;
+import java.util.List;
+import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.attributes.Usage;
+import org.gradle.api.file.Directory;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.bundling.AbstractArchiveTask;
 import org.gradle.api.tasks.bundling.Jar;
 import org.springframework.boot.gradle.plugin.SpringBootPlugin;
 import org.springframework.boot.gradle.tasks.bundling.BootJar;
+import org.springframework.boot.gradle.tasks.bundling.LayeredSpec;
 
 @SuppressWarnings("unused")
 public class SimpleBootImagePlugin implements Plugin<Project> {
@@ -16,11 +21,30 @@ public class SimpleBootImagePlugin implements Plugin<Project> {
     public static final String EXTENSION_NAME = "simpleBootImage";
     public static final String BUILD_TASK_NAME = "buildSimpleBootImage";
     public static final String PUSH_TASK_NAME = "pushSimpleBootImage";
+    public static final String ASSEMBLE_TASK_NAME = "assembleSimpleBootImage";
+    public static final String ANALYZE_TASK_NAME = "analyzeSimpleBootImage";
+    public static final String LOCK_BASE_IMAGE_TASK_NAME = "lockSimpleBootImageBase";
+    public static final String STARTUP_BENCHMARK_TASK_NAME = "benchmarkSimpleBootImageStartup";
 
     protected static final String BOOT_IMAGE_PATH = "simpleBootImage";
     protected static final String LAYERS_SUBPATH = BOOT_IMAGE_PATH + "/layers";
     protected static final String DOCKERFILE_SUBPATH = BOOT_IMAGE_PATH + "/Dockerfile";
     protected static final String FAT_JAR_SUBPATH = BOOT_IMAGE_PATH + "/application.jar";
+    protected static final String OCI_LAYOUT_PATH = BOOT_IMAGE_PATH + "-oci";
+    protected static final String IMAGE_TARBALL_PATH = BOOT_IMAGE_PATH + ".tar";
+    protected static final String IMAGE_ID_PATH = BOOT_IMAGE_PATH + ".iid";
+    protected static final String IMAGE_METADATA_PATH = BOOT_IMAGE_PATH + "-metadata.json";
+    protected static final String TIMING_REPORT_PATH = "reports/simpleBootImage";
+    protected static final String ANALYSIS_REPORT_PATH = "reports/simpleBootImage/analysis.json";
+    protected static final String STARTUP_REPORT_PATH = "reports/simpleBootImage/startup.json";
+    protected static final String STARTUP_BASELINE_FILE = "simple-boot-image.startup-baseline.json";
+    protected static final String ANALYSIS_STATE_PATH = BOOT_IMAGE_PATH + "-analysis-state.json";
+    protected static final String BAKE_TARGET_PATH = BOOT_IMAGE_PATH + "-bake-target.json";
+    protected static final String LAYER_CACHE_SUBPATH = "caches/simple-boot-image/layer-blobs";
+    protected static final String DEPENDENCY_STORE_SUBPATH = "caches/simple-boot-image/dependency-jars";
+    protected static final String MANAGED_BUILD_CACHE_SUBPATH = "caches/simple-boot-image/buildkit";
+    protected static final String BASE_IMAGE_LOCKFILE = "simple-boot-image.lock.json";
+    protected static final String BASE_IMAGE_RESOLUTION_CACHE_SUBPATH = "caches/simple-boot-image/base-images";
     protected static final String GROUP = "simple boot image";
 
     @Override
@@ -30,36 +54,90 @@ public class SimpleBootImagePlugin implements Plugin<Project> {
 
             final SharedProperties sharedProperties = project.getObjects().newInstance(SharedProperties.class, project, extension);
 
-            registerTasks(project, sharedProperties);
+            registerTasks(project, extension, sharedProperties);
 
-            configureBootJarTask(project, sharedProperties);
+            configureBootJarTask(project, extension, sharedProperties);
         });
     }
 
-    private void configureBootJarTask(Project project, SharedProperties sharedProperties) {
-        project.getTasks().named(SpringBootPlugin.BOOT_JAR_TASK_NAME, BootJar.class, task ->
-            task.getLayered().getEnabled().set(sharedProperties.getLayered().get())
-        );
+    private void configureBootJarTask(Project project, BootImageExtension extension, SharedProperties sharedProperties) {
+        project.getTasks().named(SpringBootPlugin.BOOT_JAR_TASK_NAME, BootJar.class, task -> {
+            task.getLayered().getEnabled().set(sharedProperties.getLayered());
+            if (!extension.getDependencyLayers().isEmpty()) {
+                configureDependencyLayers(task.getLayered(), extension.getDependencyLayers());
+            }
+        });
+    }
+
+    /**
+     * Replicates Spring Boot's default layering, but with the given dependency layers matched
+     * ahead of the catch-all {@code dependencies} layer.
+     */
+    private void configureDependencyLayers(LayeredSpec layered, List<DependencyLayer> dependencyLayers) {
+        layered.application(spec -> {
+            spec.intoLayer(DependencyLayer.SPRING_BOOT_LOADER, layer -> layer.include("org/springframework/boot/loader/**"));
+            spec.intoLayer(DependencyLayer.APPLICATION);
+        });
+        layered.dependencies(spec -> {
+            for (final DependencyLayer dependencyLayer : dependencyLayers) {
+                spec.intoLayer(dependencyLayer.getName(), layer -> {
+                    layer.include(dependencyLayer.getIncludes().get().toArray(String[]::new));
+                    layer.exclude(dependencyLayer.getExcludes().get().toArray(String[]::new));
+                    if (dependencyLayer.getIncludeProjectDependencies().get()) {
+                        layer.includeProjectDependencies();
+                    }
+                });
+            }
+            spec.intoLayer(DependencyLayer.APPLICATION, layer -> layer.includeProjectDependencies());
+            spec.intoLayer(DependencyLayer.SNAPSHOT_DEPENDENCIES, layer -> layer.include("*:*:*SNAPSHOT"));
+            spec.intoLayer(DependencyLayer.DEPENDENCIES);
+        });
+        layered.setLayerOrder(DependencyLayer.layerOrder(dependencyLayers));
     }
 
-    private void registerTasks(Project project, SharedProperties sharedProperties) {
+    private void registerTasks(Project project, BootImageExtension extension, SharedProperties sharedProperties) {
+        // task actions and specs only capture providers, so they can be restored from the configuration cache
+        final Provider<Boolean> layered = sharedProperties.getLayered();
+        final Provider<Boolean> useBuildx = sharedProperties.getUseBuildx();
+        final Provider<Boolean> nativePush = sharedProperties.getNativePush();
+
+        // shared by all projects, so that one report covers the whole build
+        final Provider<BuildTimingService> timingServiceRegistration = project.getGradle().getSharedServices()
+            .registerIfAbsent(BuildTimingService.SERVICE_NAME, BuildTimingService.class, spec ->
+                spec.getParameters().getReportDirectory()
+                    .set(project.getRootProject().getLayout().getBuildDirectory().dir(TIMING_REPORT_PATH))
+            );
+        final Provider<BuildTimingService> timingService = sharedProperties.getTimingReport()
+            .flatMap(enabled -> enabled ? timingServiceRegistration : project.getProviders().provider(() -> null));
+
+        final Provider<Directory> managedBuildCacheDir = gradleUserHomeDir(project, MANAGED_BUILD_CACHE_SUBPATH + "/"
+            + ManagedBuildCache.directoryName(project.getRootDir().getAbsolutePath(), project.getPath())
+        );
+
         final var extractBootLayersTask =
             project.getTasks().register("extractBootLayers", ExtractBootLayersTask.class,
                 task -> {
                     task.setGroup(GROUP);
-                    task.onlyIf(spec -> sharedProperties.getLayered().get());
+                    task.onlyIf(spec -> layered.get());
 
                     task.getLayersDirectory().convention(project.getLayout().getBuildDirectory().dir(LAYERS_SUBPATH));
                     task.getBootJar().set(bootJarProvider(project));
+                    task.getDependencyStoreDirectory().convention(gradleUserHomeDir(project, DEPENDENCY_STORE_SUBPATH));
+                    task.getTimingService().set(timingService);
+                    task.usesService(timingServiceRegistration);
+
+                    task.apply(sharedProperties);
                 });
 
         final var stageJarTask = project.getTasks().register("stageBootJarForImage", StageJarTask.class,
             task -> {
                 task.setGroup(GROUP);
-                task.onlyIf(spec -> !sharedProperties.getLayered().get());
+                task.onlyIf(spec -> !layered.get());
 
                 task.getBootJar().set(bootJarProvider(project));
                 task.getStagedJar().set(project.getLayout().getBuildDirectory().file(FAT_JAR_SUBPATH));
+                task.getTimingService().set(timingService);
+                task.usesService(timingServiceRegistration);
             }
         );
 
@@ -67,10 +145,14 @@ public class SimpleBootImagePlugin implements Plugin<Project> {
             project.getTasks().register("generateLayeredDockerfile", GenerateLayeredDockerfileTask.class,
                 task -> {
                     task.setGroup(GROUP);
-                    task.onlyIf(spec -> sharedProperties.getLayered().get());
+                    task.onlyIf(spec -> layered.get());
 
                     task.apply(sharedProperties);
 
+                    final List<DependencyLayer> dependencyLayers = extension.getDependencyLayers();
+                    task.getLayers().set(project.getProviders().provider(
+                        () -> DependencyLayer.layerOrder(dependencyLayers)
+                    ));
                     task.getLauncherClass().convention("org.springframework.boot.loader.launch.JarLauncher");
                     task.getDockerfile().convention(project.getLayout().getBuildDirectory().file(DOCKERFILE_SUBPATH));
                 });
@@ -79,34 +161,132 @@ public class SimpleBootImagePlugin implements Plugin<Project> {
             project.getTasks().register("generateFatJarDockerfile", GenerateFatJarDockerfileTask.class,
                 task -> {
                     task.setGroup(GROUP);
-                    task.onlyIf(spec -> !sharedProperties.getLayered().get());
+                    task.onlyIf(spec -> !layered.get());
 
                     task.getDockerfile().convention(project.getLayout().getBuildDirectory().file(DOCKERFILE_SUBPATH));
 
                     task.getStagedJar().set(stageJarTask.flatMap(StageJarTask::getStagedJar));
+
+                    task.apply(sharedProperties);
                 }
             );
 
+        final var lockBaseImageTask = project.getTasks().register(LOCK_BASE_IMAGE_TASK_NAME, LockBaseImageTask.class,
+            task -> {
+                task.setGroup(GROUP);
+                task.getLockFile().convention(project.getLayout().getProjectDirectory().file(BASE_IMAGE_LOCKFILE));
+                task.getResolutionCacheDirectory().convention(gradleUserHomeDir(project, BASE_IMAGE_RESOLUTION_CACHE_SUBPATH));
+
+                task.apply(sharedProperties);
+            });
+        // only present once the lockfile has been written
+        final File baseImageLockFile = project.file(BASE_IMAGE_LOCKFILE);
+        final Provider<RegularFile> existingBaseImageLockFile = project.getLayout().file(
+            project.getProviders().provider(() -> baseImageLockFile.isFile() ? baseImageLockFile : null)
+        );
+
+        // the Dockerfile and its context, from either the extracted layers or the staged jar
+        final Action<ImageBuildingTask> imageContext = task -> {
+            task.getBaseImageLockFile().set(existingBaseImageLockFile);
+            task.mustRunAfter(lockBaseImageTask);
+            task.getDockerfile().set(layered.flatMap(isLayered -> isLayered ?
+                layeredDockerfileTask.flatMap(GenerateLayeredDockerfileTask::getDockerfile)
+                : fatJarDockerfileTask.flatMap(GenerateFatJarDockerfileTask::getDockerfile)
+            ));
+            task.dependsOn(layered.map(isLayered -> isLayered ? extractBootLayersTask.get() : stageJarTask.get()));
+            task.getBootImageDirectory().convention(project.getLayout().getBuildDirectory().dir(BOOT_IMAGE_PATH));
+            task.getTimingService().set(timingService);
+            task.usesService(timingServiceRegistration);
+        };
+
         final var buildTask = project.getTasks().register(BUILD_TASK_NAME, BuildImageTask.class,
             task -> {
                 task.setGroup(GROUP);
-                if (sharedProperties.getLayered().get()) {
-                    task.getDockerfile().set(layeredDockerfileTask.flatMap(GenerateLayeredDockerfileTask::getDockerfile));
-                    task.dependsOn(extractBootLayersTask);
-                } else {
-                    task.getDockerfile().set(fatJarDockerfileTask.flatMap(GenerateFatJarDockerfileTask::getDockerfile));
-                    task.dependsOn(stageJarTask);
-                }
-                task.getBootImageDirectory().convention(project.getLayout().getBuildDirectory().dir(BOOT_IMAGE_PATH));
+                imageContext.execute(task);
+                // kept outside the context directory since that is an input
+                task.getImageIdFile().convention(project.getLayout().getBuildDirectory().file(IMAGE_ID_PATH));
+                task.getMetadataFile().convention(project.getLayout().getBuildDirectory().file(IMAGE_METADATA_PATH));
+                task.getManagedCacheDirectory().convention(managedBuildCacheDir);
 
                 task.apply(sharedProperties);
             });
 
+        final var assembleTask = project.getTasks().register(ASSEMBLE_TASK_NAME, AssembleImageTask.class,
+            task -> {
+                task.setGroup(GROUP);
+                imageContext.execute(task);
+                task.getOciLayoutDirectory().convention(project.getLayout().getBuildDirectory().dir(OCI_LAYOUT_PATH));
+                task.getImageTarball().convention(project.getLayout().getBuildDirectory().file(IMAGE_TARBALL_PATH));
+                task.getLayerCacheDirectory().convention(gradleUserHomeDir(project, LAYER_CACHE_SUBPATH));
+
+                task.apply(sharedProperties);
+            });
+
+        project.getTasks().register(ANALYZE_TASK_NAME, AnalyzeImageTask.class,
+            task -> {
+                task.setGroup(GROUP);
+                task.getLayersDirectory().set(layered.flatMap(isLayered -> isLayered ?
+                    extractBootLayersTask.flatMap(ExtractBootLayersTask::getLayersDirectory)
+                    : project.getObjects().directoryProperty()
+                ));
+                task.getStagedJar().set(layered.flatMap(isLayered -> isLayered ?
+                    project.getObjects().fileProperty()
+                    : stageJarTask.flatMap(StageJarTask::getStagedJar)
+                ));
+                // the built image is only described when it exists, rather than building it
+                task.getImageIdFile().from(project.getLayout().getBuildDirectory().file(IMAGE_ID_PATH));
+                task.mustRunAfter(buildTask);
+                task.getReportFile().convention(project.getLayout().getBuildDirectory().file(ANALYSIS_REPORT_PATH));
+                task.getStateFile().convention(project.getLayout().getBuildDirectory().file(ANALYSIS_STATE_PATH));
+
+                task.apply(sharedProperties);
+            });
+
+        final Provider<ContainerRunner> startupRunner = sharedProperties.getStartupBenchmark().getRunner();
+        project.getTasks().register(STARTUP_BENCHMARK_TASK_NAME, BenchmarkStartupTask.class,
+            task -> {
+                task.setGroup(GROUP);
+                task.getImageIdFile().convention(buildTask.flatMap(BuildImageTask::getImageIdFile));
+                // a stand-in runner doesn't run the image, so it isn't built
+                task.dependsOn(startupRunner.map(runner -> runner.requiresImage() ? List.of(buildTask.get()) : List.of()));
+                task.getReportFile().convention(project.getLayout().getBuildDirectory().file(STARTUP_REPORT_PATH));
+                task.getBaselineFile().convention(project.getLayout().getProjectDirectory().file(STARTUP_BASELINE_FILE));
+
+                task.apply(sharedProperties);
+            });
+
+        final var bakeTargetTask = project.getTasks().register("generateSimpleBootImageBakeTarget", GenerateBakeTargetTask.class,
+            task -> {
+                task.setGroup(GROUP);
+                imageContext.execute(task);
+                task.getTargetName().convention(GenerateBakeTargetTask.targetName(project.getPath()));
+                task.getTargetFile().convention(project.getLayout().getBuildDirectory().file(BAKE_TARGET_PATH));
+                task.getManagedCacheDirectory().convention(managedBuildCacheDir);
+
+                task.apply(sharedProperties);
+            });
+
+        // published for the bake plugin applied to the root project
+        project.getConfigurations().create("simpleBootImageBakeTargetElements", configuration -> {
+            configuration.setCanBeConsumed(true);
+            configuration.setCanBeResolved(false);
+            configuration.attributes(attributes -> attributes.attribute(Usage.USAGE_ATTRIBUTE,
+                project.getObjects().named(Usage.class, SimpleBootImageBakePlugin.BAKE_TARGET_USAGE)
+            ));
+            configuration.getOutgoing().artifact(bakeTargetTask.flatMap(GenerateBakeTargetTask::getTargetFile));
+        });
+
         project.getTasks().register(PUSH_TASK_NAME, PushImageTask.class,
             task -> {
-                task.onlyIf(spec -> !sharedProperties.getUseBuildx().get());
+                task.onlyIf(spec -> !useBuildx.get() || nativePush.get());
                 task.setGroup(GROUP);
-                task.dependsOn(buildTask);
+                task.getTimingService().set(timingService);
+                task.usesService(timingServiceRegistration);
+                task.getOciLayoutDirectory().set(nativePush.flatMap(isNativePush -> isNativePush ?
+                    assembleTask.flatMap(AssembleImageTask::getOciLayoutDirectory)
+                    : project.getObjects().directoryProperty()
+                ));
+                task.dependsOn(nativePush.map(isNativePush -> isNativePush ? List.of() : List.of(buildTask.get())));
 
                 task.apply(sharedProperties);
             });
@@ -116,6 +296,11 @@ public class SimpleBootImagePlugin implements Plugin<Project> {
         return project.getExtensions().create(EXTENSION_NAME, BootImageExtension.class, project);
     }
 
+    private Provider<Directory> gradleUserHomeDir(Project project, String subpath) {
+        final File dir = new File(project.getGradle().getGradleUserHomeDir(), subpath);
+        return project.getLayout().dir(project.getProviders().provider(() -> dir));
+    }
+
     private Provider<RegularFile> bootJarProvider(Project project) {
         return project.getTasks().named("bootJar", Jar.class)
             .flatMap(AbstractArchiveTask::getArchiveFile);
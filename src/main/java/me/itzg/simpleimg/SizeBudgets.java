@@ -0,0 +1,26 @@
+package me.itzg.simpleimg;
+
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * Size limits checked by {@code analyzeSimpleBootImage}, which fails when any of them is exceeded.
+ */
+abstract public class SizeBudgets {
+
+    /**
+     * The maximum uncompressed size, in MiB, of each named layer, such as {@code dependencies}
+     */
+    abstract MapProperty<String, Integer> getLayerMaxSizeMb();
+
+    /**
+     * The maximum uncompressed size, in MiB, of all the application layers combined
+     */
+    abstract Property<Integer> getTotalMaxSizeMb();
+
+    /**
+     * The maximum size, in MiB, of the built image including its base image, which is only
+     * checked when the image was built to the local Docker daemon
+     */
+    abstract Property<Integer> getImageMaxSizeMb();
+}
@@ -6,6 +6,7 @@ import java.nio.file.StandardCopyOption;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.NonNullApi;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 
 @CacheableTask
@@ -17,12 +18,22 @@ public abstract class StageJarTask extends DefaultTask {
     @OutputFile
     public abstract RegularFileProperty getStagedJar();
 
+    /**
+     * Present when timings of the image build phases are being reported
+     */
+    @Internal
+    abstract Property<BuildTimingService> getTimingService();
+
     @TaskAction
     public void stage() throws IOException {
+        final long started = System.nanoTime();
+        // copied rather than linked, since the jar task may re-write the boot jar in place, which would
+        // change the staged jar behind Gradle's back; the copy is a reflink where the filesystem supports one
         Files.copy(
             getBootJar().getAsFile().get().toPath(),
             getStagedJar().getAsFile().get().toPath(),
             StandardCopyOption.REPLACE_EXISTING
         );
+        BuildTimingService.record(getTimingService(), this, "stage jar", started);
     }
 }
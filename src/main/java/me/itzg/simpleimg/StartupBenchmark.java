@@ -0,0 +1,65 @@
+package me.itzg.simpleimg;
+
+import java.util.List;
+import org.gradle.api.provider.Property;
+
+/**
+ * Configures how {@code benchmarkSimpleBootImageStartup} starts the image and decides that it's ready.
+ */
+abstract public class StartupBenchmark {
+
+    /**
+     * Logged by Spring Boot once the application has started, such as
+     * {@code Started Application in 1.234 seconds (process running for 1.5)}
+     */
+    static final String DEFAULT_READY_LOG_PATTERN = "Started \\S+ in [\\d.]+ seconds";
+
+    /**
+     * The number of measured starts of the image
+     */
+    abstract Property<Integer> getIterations();
+
+    /**
+     * The number of starts before the measured ones, which are discarded
+     */
+    abstract Property<Integer> getWarmupIterations();
+
+    /**
+     * A regular expression found in a line of the container's output once it's ready
+     */
+    abstract Property<String> getReadyLogPattern();
+
+    /**
+     * When set, the container is ready once this URL responds with a 2xx status, rather than when
+     * {@link #getReadyLogPattern()} is logged. Its port is published from the container.
+     */
+    abstract Property<String> getReadyUrl();
+
+    /**
+     * The maximum time to wait for each start of the container to be ready
+     */
+    abstract Property<Integer> getTimeoutSeconds();
+
+    /**
+     * When set, the benchmark fails when the p95 time to ready is slower than the baseline's by more
+     * than this percentage
+     */
+    abstract Property<Double> getMaxRegressionPercent();
+
+    abstract Property<ContainerRunner> getRunner();
+
+    public StartupBenchmark() {
+        getIterations().convention(10);
+        getWarmupIterations().convention(1);
+        getReadyLogPattern().convention(DEFAULT_READY_LOG_PATTERN);
+        getTimeoutSeconds().convention(120);
+        getRunner().convention(new DockerContainerRunner());
+    }
+
+    /**
+     * @return a runner that runs the given local command in place of each container
+     */
+    public ContainerRunner processRunner(String... command) {
+        return new ProcessContainerRunner(List.of(command));
+    }
+}
@@ -0,0 +1,188 @@
+package me.itzg.simpleimg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Writes reproducible tar archives: entries are sorted and have fixed ownership and timestamps,
+ * so the same content always produces the same bytes and therefore the same digest.
+ */
+class TarWriter implements Closeable {
+
+    /**
+     * 1980-01-01T00:00:01Z, same as Spring Boot's buildpack support, since some tools treat the
+     * epoch itself as "unset"
+     */
+    static final long FIXED_MTIME_SECONDS = 315532801L;
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private final OutputStream out;
+    private final Set<String> directories = new HashSet<>();
+
+    TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Adds the contents of the source directory, recursively, beneath the given prefix.
+     *
+     * @param prefix the path within the archive, such as {@code application/}, or empty for the root
+     */
+    void addDirectoryContents(Path source, String prefix) throws IOException {
+        final List<Path> paths;
+        try (Stream<Path> walk = Files.walk(source)) {
+            paths = walk
+                .filter(path -> !path.equals(source))
+                .sorted()
+                .toList();
+        }
+        if (!prefix.isEmpty()) {
+            addDirectory(prefix);
+        }
+        for (final Path path : paths) {
+            final String name = prefix + toEntryName(source.relativize(path));
+            if (Files.isDirectory(path)) {
+                addDirectory(name);
+            } else {
+                addFile(name, path);
+            }
+        }
+    }
+
+    void addDirectory(String name) throws IOException {
+        final String dirName = name.endsWith("/") ? name : name + "/";
+        if (!directories.add(dirName)) {
+            return;
+        }
+        addParents(dirName.substring(0, dirName.length() - 1));
+        writeHeader(dirName, 0755, 0, '5');
+    }
+
+    void addFile(String name, Path file) throws IOException {
+        addParents(name);
+        writeHeader(name, Files.isExecutable(file) ? 0755 : 0644, Files.size(file), '0');
+        final long size;
+        try (InputStream in = Files.newInputStream(file)) {
+            size = in.transferTo(out);
+        }
+        pad(size);
+    }
+
+    void addFile(String name, byte[] content) throws IOException {
+        addParents(name);
+        writeHeader(name, 0644, content.length, '0');
+        out.write(content);
+        pad(content.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // end of archive is two zero blocks
+        out.write(new byte[BLOCK_SIZE * 2]);
+        out.close();
+    }
+
+    private void addParents(String name) throws IOException {
+        final int slashPos = name.lastIndexOf('/');
+        if (slashPos > 0) {
+            addDirectory(name.substring(0, slashPos + 1));
+        }
+    }
+
+    private void writeHeader(String name, int mode, long size, char type) throws IOException {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > NAME_LENGTH || size > MAX_OCTAL_SIZE) {
+            writePaxHeader(name, nameBytes.length > NAME_LENGTH, size);
+        }
+
+        final byte[] header = new byte[BLOCK_SIZE];
+        putString(header, 0, NAME_LENGTH, name);
+        putOctal(header, 100, 8, mode);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, Math.min(size, MAX_OCTAL_SIZE));
+        putOctal(header, 136, 12, FIXED_MTIME_SECONDS);
+        header[156] = (byte) type;
+        putString(header, 257, 6, "ustar");
+        putString(header, 263, 2, "00");
+        putString(header, 265, 32, "root");
+        putString(header, 297, 32, "root");
+
+        // checksum is calculated with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (final byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    private void writePaxHeader(String name, boolean longName, long size) throws IOException {
+        final StringBuilder records = new StringBuilder();
+        if (longName) {
+            records.append(paxRecord("path", name));
+        }
+        if (size > MAX_OCTAL_SIZE) {
+            records.append(paxRecord("size", Long.toString(size)));
+        }
+        final byte[] content = records.toString().getBytes(StandardCharsets.UTF_8);
+        writeHeader("PaxHeaders/" + truncate(name), 0644, content.length, 'x');
+        out.write(content);
+        pad(content.length);
+    }
+
+    private static String paxRecord(String key, String value) {
+        // the record length includes the length digits themselves
+        final int baseLength = key.getBytes(StandardCharsets.UTF_8).length
+            + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = baseLength + Integer.toString(baseLength).length();
+        if (Integer.toString(length).length() != Integer.toString(baseLength).length()) {
+            length = baseLength + Integer.toString(length).length();
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static String truncate(String name) {
+        final String stripped = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        final String baseName = stripped.substring(stripped.lastIndexOf('/') + 1);
+        return baseName.length() > 80 ? baseName.substring(0, 80) : baseName;
+    }
+
+    private void pad(long size) throws IOException {
+        final int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder != 0) {
+            out.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+
+    private static void putString(byte[] header, int offset, int length, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        // zero-padded octal digits followed by a NUL
+        final String octal = String.format("%0" + (length - 1) + "o", value);
+        putString(header, offset, length - 1, octal);
+        header[offset + length - 1] = 0;
+    }
+
+    static String toEntryName(Path relativePath) {
+        return relativePath.toString().replace('\\', '/');
+    }
+}
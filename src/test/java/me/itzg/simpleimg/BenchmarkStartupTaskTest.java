@@ -0,0 +1,165 @@
+package me.itzg.simpleimg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import groovy.json.JsonSlurper;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import org.gradle.api.GradleException;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BenchmarkStartupTaskTest {
+
+    @TempDir
+    Path projectDir;
+
+    /**
+     * Starts containers that log the ready line after a scripted delay, with a scripted peak RSS
+     */
+    static class ScriptedRunner implements ContainerRunner {
+
+        record Start(long readyMillis, long peakRssMb) {
+        }
+
+        private final Deque<Start> starts;
+        private int started;
+
+        ScriptedRunner(List<Start> starts) {
+            this.starts = new ArrayDeque<>(starts);
+        }
+
+        @Override
+        public boolean requiresImage() {
+            return false;
+        }
+
+        @Override
+        public Container start(String image, Integer port) {
+            final Start start = starts.removeFirst();
+            started++;
+            final byte[] output = "Started Application in 0.1 seconds (process running for 0.2)\n"
+                .getBytes(StandardCharsets.UTF_8);
+            return new Container() {
+                @Override
+                public InputStream getOutput() {
+                    return new FilterInputStream(new ByteArrayInputStream(output)) {
+                        private boolean waited;
+
+                        @Override
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            if (!waited) {
+                                waited = true;
+                                try {
+                                    Thread.sleep(start.readyMillis());
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    throw new IOException(e);
+                                }
+                            }
+                            return super.read(b, off, len);
+                        }
+                    };
+                }
+
+                @Override
+                public long peakRssBytes() {
+                    return start.peakRssMb() * 1024 * 1024;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    @Test
+    void discardsWarmupAndReportsPercentiles() throws IOException {
+        // the warmup start is much slower and larger than the measured ones, so it would skew both percentiles
+        final ScriptedRunner runner = new ScriptedRunner(List.of(
+            new ScriptedRunner.Start(1500, 900),
+            new ScriptedRunner.Start(100, 110),
+            new ScriptedRunner.Start(300, 130),
+            new ScriptedRunner.Start(200, 120),
+            new ScriptedRunner.Start(500, 150),
+            new ScriptedRunner.Start(400, 140)
+        ));
+        final BenchmarkStartupTask task = benchmarkTask(runner, 1, 5);
+
+        task.benchmark();
+
+        assertEquals(6, runner.started);
+        final Map<?, ?> report = readJson(task.getReportFile());
+        assertEquals(5, report.get("iterations"));
+        assertEquals(5, ((List<?>) report.get("samples")).size());
+
+        final Map<?, ?> readyMillis = (Map<?, ?>) report.get("readyMillis");
+        assertBetween(300, ((Number) readyMillis.get("p50")).longValue());
+        assertBetween(500, ((Number) readyMillis.get("p95")).longValue());
+        assertEquals(Map.of("p50", 130L, "p95", 150L), longValues((Map<?, ?>) report.get("peakRssMb")));
+
+        assertTrue(Files.isRegularFile(task.getBaselineFile().get().getAsFile().toPath()),
+            "first benchmark records the baseline");
+    }
+
+    @Test
+    void failsWhenP95RegressesFromBaseline() throws IOException {
+        final ScriptedRunner runner = new ScriptedRunner(List.of(
+            new ScriptedRunner.Start(300, 100),
+            new ScriptedRunner.Start(300, 100)
+        ));
+        final BenchmarkStartupTask task = benchmarkTask(runner, 0, 2);
+        task.getMaxRegressionPercent().set(50.0);
+        Files.writeString(task.getBaselineFile().get().getAsFile().toPath(),
+            "{\"readyMillis\":{\"p50\":100,\"p95\":100}}");
+
+        final GradleException exception = assertThrows(GradleException.class, task::benchmark);
+        assertTrue(exception.getMessage().contains("regressed"), exception.getMessage());
+        assertFalse(Files.readString(task.getBaselineFile().get().getAsFile().toPath()).contains("peakRssMb"),
+            "baseline is kept");
+    }
+
+    private BenchmarkStartupTask benchmarkTask(ContainerRunner runner, int warmupIterations, int iterations) {
+        return ProjectBuilder.builder().withProjectDir(projectDir.toFile()).build()
+            .getTasks().register("benchmarkSimpleBootImageStartup", BenchmarkStartupTask.class, task -> {
+                task.getRunner().set(runner);
+                task.getWarmupIterations().set(warmupIterations);
+                task.getIterations().set(iterations);
+                task.getReadyLogPattern().set(StartupBenchmark.DEFAULT_READY_LOG_PATTERN);
+                task.getTimeoutSeconds().set(30);
+                task.getUpdateBaseline().set(false);
+                task.getBaselineFile().set(projectDir.resolve("startup-baseline.json").toFile());
+                task.getReportFile().set(projectDir.resolve("build/startup.json").toFile());
+            }).get();
+    }
+
+    /**
+     * Allows for the overhead of starting each container and reading its output
+     */
+    private static void assertBetween(long expectedMillis, long actualMillis) {
+        assertTrue(actualMillis >= expectedMillis && actualMillis < expectedMillis + 90,
+            "expected about " + expectedMillis + " ms but was " + actualMillis);
+    }
+
+    private static Map<String, Long> longValues(Map<?, ?> map) {
+        return Map.of("p50", ((Number) map.get("p50")).longValue(), "p95", ((Number) map.get("p95")).longValue());
+    }
+
+    private static Map<?, ?> readJson(org.gradle.api.file.RegularFileProperty file) {
+        return (Map<?, ?>) new JsonSlurper().parse(file.get().getAsFile());
+    }
+}
@@ -0,0 +1,92 @@
+package me.itzg.simpleimg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BootLayersExtractorTest {
+
+    private static final String LAYERS_INDEX = """
+        - "dependencies":
+          - "BOOT-INF/lib/"
+        - "application":
+          - "BOOT-INF/classes/"
+          - "BOOT-INF/layers.idx"
+          - "META-INF/"
+        """;
+
+    private static final long FIRST_BUILD = 1_700_000_000_000L;
+    private static final long SECOND_BUILD = 1_700_000_100_000L;
+    /**
+     * Marks files after the first extraction, so any rewritten by the second one can be told apart
+     */
+    private static final FileTime EXTRACTED = FileTime.fromMillis(1_600_000_000_000L);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rewritesOnlyChangedEntries() throws Exception {
+        final Path layersDir = tempDir.resolve("layers");
+        final Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("BOOT-INF/classes/app/Unchanged.class", "unchanged");
+        // same size in both builds, so only the CRC tells them apart
+        entries.put("BOOT-INF/classes/app/Changed.class", "version 1");
+        entries.put("BOOT-INF/classes/app/old/Deleted.class", "deleted");
+        entries.put("BOOT-INF/lib/dependency.jar", "dependency");
+
+        final BootLayersExtractor.Result first = new BootLayersExtractor(writeJar(entries, FIRST_BUILD))
+            .extract(layersDir, true);
+        assertEquals(new BootLayersExtractor.Result(6, 0, 0), first);
+        try (var files = Files.walk(layersDir)) {
+            for (final Path file : files.filter(Files::isRegularFile).toList()) {
+                Files.setLastModifiedTime(file, EXTRACTED);
+            }
+        }
+
+        entries.put("BOOT-INF/classes/app/Changed.class", "version 2");
+        entries.remove("BOOT-INF/classes/app/old/Deleted.class");
+        final BootLayersExtractor.Result second = new BootLayersExtractor(writeJar(entries, SECOND_BUILD))
+            .extract(layersDir, true);
+
+        assertEquals(new BootLayersExtractor.Result(1, 4, 1), second);
+        final Path classes = layersDir.resolve("application/BOOT-INF/classes/app");
+        assertEquals("version 2", Files.readString(classes.resolve("Changed.class")));
+        assertEquals(FileTime.fromMillis(SECOND_BUILD), Files.getLastModifiedTime(classes.resolve("Changed.class")));
+        assertEquals(EXTRACTED, Files.getLastModifiedTime(classes.resolve("Unchanged.class")));
+        assertEquals(EXTRACTED,
+            Files.getLastModifiedTime(layersDir.resolve("dependencies/BOOT-INF/lib/dependency.jar")));
+        assertFalse(Files.exists(classes.resolve("old")), "deleted entry and its empty directory are removed");
+    }
+
+    private Path writeJar(Map<String, String> entries, long time) throws IOException {
+        final Path jar = Files.createTempFile(tempDir, "app", ".jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            writeEntry(out, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n", time);
+            writeEntry(out, BootLayersExtractor.LAYERS_INDEX, LAYERS_INDEX, time);
+            for (final Map.Entry<String, String> entry : entries.entrySet()) {
+                writeEntry(out, entry.getKey(), entry.getValue(), time);
+            }
+        }
+        return jar;
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, String content, long time) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        out.putNextEntry(entry);
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+}
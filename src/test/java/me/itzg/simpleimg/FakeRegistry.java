@@ -0,0 +1,303 @@
+package me.itzg.simpleimg;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process stand-in for a registry that implements the parts of the OCI distribution API used
+ * by {@link RegistryClient}, behind a bearer token challenge.
+ */
+class FakeRegistry implements AutoCloseable {
+
+    private static final String TOKEN = "fake-token";
+    private static final Pattern UPLOAD_PATH = Pattern.compile("/v2/(.+)/blobs/uploads/(.*)");
+    private static final Pattern BLOB_PATH = Pattern.compile("/v2/(.+)/blobs/(sha256:[a-f0-9]+)");
+    private static final Pattern MANIFEST_PATH = Pattern.compile("/v2/(.+)/manifests/([^/]+)");
+
+    record StoredManifest(String mediaType, byte[] content) {
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Blob content by repository and then digest
+     */
+    private final Map<String, Map<String, byte[]>> blobs = new HashMap<>();
+    /**
+     * Manifests by repository and then tag or digest
+     */
+    private final Map<String, Map<String, StoredManifest>> manifests = new HashMap<>();
+    private final Map<String, ByteArrayOutputStream> uploads = new HashMap<>();
+
+    private final List<String> tokenScopes = new ArrayList<>();
+    private final List<String> refreshTokens = new ArrayList<>();
+    private String identityToken;
+    private final List<String> mountedDigests = new ArrayList<>();
+    private final List<String> uploadedDigests = new ArrayList<>();
+    private final List<String> manifestPuts = new ArrayList<>();
+    private int chunkFailures;
+
+    FakeRegistry() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/token", this::handleToken);
+        server.createContext("/v2/", this::handleApi);
+        server.start();
+    }
+
+    /**
+     * @return the registry host, which {@link RegistryClient} accesses over plain HTTP since it's local
+     */
+    String getRegistry() {
+        return "localhost:" + server.getAddress().getPort();
+    }
+
+    synchronized void addBlob(String repository, byte[] content) {
+        blobs.computeIfAbsent(repository, k -> new HashMap<>()).put(Digests.sha256(content), content);
+    }
+
+    synchronized byte[] getBlob(String repository, String digest) {
+        return blobs.getOrDefault(repository, Map.of()).get(digest);
+    }
+
+    synchronized void addManifest(String repository, String reference, String mediaType, byte[] content) {
+        manifests.computeIfAbsent(repository, k -> new HashMap<>()).put(reference, new StoredManifest(mediaType, content));
+    }
+
+    synchronized StoredManifest getManifest(String repository, String reference) {
+        return manifests.getOrDefault(repository, Map.of()).get(reference);
+    }
+
+    /**
+     * The next given number of chunks only store half of their content before failing, as if the
+     * connection dropped part way through.
+     */
+    synchronized void failChunks(int count) {
+        chunkFailures = count;
+    }
+
+    /**
+     * Only issues tokens in exchange for the given identity token, through the OAuth2 refresh token grant
+     */
+    synchronized void requireIdentityToken(String identityToken) {
+        this.identityToken = identityToken;
+    }
+
+    /**
+     * @return the refresh tokens of each OAuth2 token request
+     */
+    synchronized List<String> getRefreshTokens() {
+        return List.copyOf(refreshTokens);
+    }
+
+    synchronized List<String> getTokenScopes() {
+        return List.copyOf(tokenScopes);
+    }
+
+    synchronized List<String> getMountedDigests() {
+        return List.copyOf(mountedDigests);
+    }
+
+    synchronized List<String> getUploadedDigests() {
+        return List.copyOf(uploadedDigests);
+    }
+
+    /**
+     * @return each manifest put as {@code repository:reference}
+     */
+    synchronized List<String> getManifestPuts() {
+        return List.copyOf(manifestPuts);
+    }
+
+    private synchronized void handleToken(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestMethod().equals("POST")) {
+            final Map<String, String> form = new HashMap<>();
+            for (final String param : new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).split("&")) {
+                final String[] parts = param.split("=", 2);
+                form.put(parts[0], URLDecoder.decode(parts[1], StandardCharsets.UTF_8));
+            }
+            refreshTokens.add(form.get("refresh_token"));
+            if (!"refresh_token".equals(form.get("grant_type")) || !form.get("refresh_token").equals(identityToken)) {
+                respond(exchange, 401, null);
+                return;
+            }
+            tokenScopes.addAll(List.of(form.get("scope").split(" ")));
+            respond(exchange, 200, ("{\"access_token\":\"" + TOKEN + "\"}").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        if (identityToken != null) {
+            respond(exchange, 401, null);
+            return;
+        }
+        for (final String param : exchange.getRequestURI().getRawQuery().split("&")) {
+            if (param.startsWith("scope=")) {
+                tokenScopes.add(URLDecoder.decode(param.substring("scope=".length()), StandardCharsets.UTF_8));
+            }
+        }
+        respond(exchange, 200, ("{\"token\":\"" + TOKEN + "\"}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized void handleApi(HttpExchange exchange) throws IOException {
+        final byte[] body = exchange.getRequestBody().readAllBytes();
+        if (!("Bearer " + TOKEN).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            exchange.getResponseHeaders().set("WWW-Authenticate",
+                "Bearer realm=\"http://" + getRegistry() + "/token\",service=\"fake-registry\"");
+            respond(exchange, 401, null);
+            return;
+        }
+
+        final String path = exchange.getRequestURI().getPath();
+        final String method = exchange.getRequestMethod();
+        Matcher matcher;
+        if ((matcher = UPLOAD_PATH.matcher(path)).matches()) {
+            handleUpload(exchange, method, matcher.group(1), matcher.group(2), body);
+        }
+        else if ((matcher = BLOB_PATH.matcher(path)).matches() && method.equals("HEAD")) {
+            respond(exchange, getBlob(matcher.group(1), matcher.group(2)) != null ? 200 : 404, null);
+        }
+        else if ((matcher = MANIFEST_PATH.matcher(path)).matches()) {
+            handleManifest(exchange, method, matcher.group(1), matcher.group(2), body);
+        }
+        else {
+            respond(exchange, 404, null);
+        }
+    }
+
+    private void handleUpload(HttpExchange exchange, String method, String repository, String uploadId, byte[] body)
+        throws IOException {
+        final Map<String, String> query = query(exchange);
+        if (method.equals("POST")) {
+            final String mountFrom = query.get("from");
+            if (mountFrom != null && getBlob(mountFrom, query.get("mount")) != null) {
+                addBlob(repository, getBlob(mountFrom, query.get("mount")));
+                mountedDigests.add(query.get("mount"));
+                respond(exchange, 201, null);
+                return;
+            }
+            final String id = UUID.randomUUID().toString();
+            uploads.put(id, new ByteArrayOutputStream());
+            respondWithUpload(exchange, 202, repository, id);
+            return;
+        }
+
+        final ByteArrayOutputStream upload = uploads.get(uploadId);
+        if (upload == null) {
+            respond(exchange, 404, null);
+            return;
+        }
+        switch (method) {
+            case "GET" -> respondWithUpload(exchange, 204, repository, uploadId);
+            case "PATCH" -> {
+                final String range = exchange.getRequestHeaders().getFirst("Content-Range");
+                if (range == null || Long.parseLong(range.substring(0, range.indexOf('-'))) != upload.size()) {
+                    respondWithUpload(exchange, 416, repository, uploadId);
+                }
+                else if (chunkFailures > 0) {
+                    chunkFailures--;
+                    upload.write(body, 0, body.length / 2);
+                    respond(exchange, 500, null);
+                }
+                else {
+                    upload.write(body);
+                    respondWithUpload(exchange, 202, repository, uploadId);
+                }
+            }
+            case "PUT" -> {
+                upload.write(body);
+                final byte[] content = upload.toByteArray();
+                if (!Digests.sha256(content).equals(query.get("digest"))) {
+                    respond(exchange, 400, "DIGEST_INVALID".getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                uploads.remove(uploadId);
+                addBlob(repository, content);
+                uploadedDigests.add(query.get("digest"));
+                respond(exchange, 201, null);
+            }
+            default -> respond(exchange, 405, null);
+        }
+    }
+
+    private void handleManifest(HttpExchange exchange, String method, String repository, String reference, byte[] body)
+        throws IOException {
+        switch (method) {
+            case "HEAD", "GET" -> {
+                final StoredManifest manifest = manifests.getOrDefault(repository, Map.of()).get(reference);
+                if (manifest == null) {
+                    respond(exchange, 404, null);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", manifest.mediaType());
+                exchange.getResponseHeaders().set("Docker-Content-Digest", Digests.sha256(manifest.content()));
+                respond(exchange, 200, method.equals("GET") ? manifest.content() : null);
+            }
+            case "PUT" -> {
+                final String mediaType = exchange.getRequestHeaders().getFirst("Content-Type");
+                addManifest(repository, reference, mediaType, body);
+                addManifest(repository, Digests.sha256(body), mediaType, body);
+                manifestPuts.add(repository + ":" + reference);
+                respond(exchange, 201, null);
+            }
+            default -> respond(exchange, 405, null);
+        }
+    }
+
+    private void respondWithUpload(HttpExchange exchange, int status, String repository, String uploadId)
+        throws IOException {
+        final int size = uploads.get(uploadId).size();
+        exchange.getResponseHeaders().set("Location", "/v2/" + repository + "/blobs/uploads/" + uploadId);
+        if (size > 0) {
+            exchange.getResponseHeaders().set("Range", "0-" + (size - 1));
+        }
+        respond(exchange, status, null);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        final Map<String, String> params = new HashMap<>();
+        final String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (final String param : rawQuery.split("&")) {
+                final int equalsPos = param.indexOf('=');
+                params.put(param.substring(0, equalsPos), URLDecoder.decode(param.substring(equalsPos + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null || exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+        }
+        else {
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,174 @@
+package me.itzg.simpleimg;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ImagePusherTest {
+
+    private static final String BASE_REPOSITORY = "library/base";
+    private static final String REPOSITORY = "itzg/app";
+
+    @TempDir
+    Path layoutDir;
+
+    private FakeRegistry registry;
+    private ImagePusher pusher;
+    private OciLayout layout;
+
+    private byte[] baseLayer;
+    private byte[] appLayer;
+    private OciLayout.Descriptor manifest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        registry = new FakeRegistry();
+        pusher = new ImagePusher(
+            new RegistryClient(registry.getRegistry(), RegistryCredentials.ANONYMOUS), 2,
+            Logging.getLogger(ImagePusherTest.class)
+        );
+
+        final Random random = new Random(0);
+        baseLayer = new byte[64 * 1024];
+        random.nextBytes(baseLayer);
+        appLayer = new byte[256 * 1024];
+        random.nextBytes(appLayer);
+
+        layout = new OciLayout(layoutDir);
+        final OciLayout.Descriptor config = layout.writeJsonBlob(OciLayout.OCI_CONFIG, Map.of("architecture", "amd64"));
+        manifest = layout.writeJsonBlob(RegistryClient.OCI_MANIFEST, Map.of(
+            "schemaVersion", 2,
+            "mediaType", RegistryClient.OCI_MANIFEST,
+            "config", config.toMap(),
+            "layers", List.of(writeLayer(baseLayer).toMap(), writeLayer(appLayer).toMap())
+        ));
+
+        registry.addBlob(BASE_REPOSITORY, baseLayer);
+    }
+
+    @AfterEach
+    void tearDown() {
+        registry.close();
+    }
+
+    @Test
+    void mountsBlobsFromBaseRepository() throws IOException {
+        pusher.push(layout, image(), List.of("1.0"), manifest, BASE_REPOSITORY);
+
+        assertEquals(List.of(Digests.sha256(baseLayer)), registry.getMountedDigests());
+        assertEquals(List.of(REPOSITORY + ":1.0"), registry.getManifestPuts());
+        assertArrayEquals(baseLayer, registry.getBlob(REPOSITORY, Digests.sha256(baseLayer)));
+        assertTrue(registry.getTokenScopes().contains(RegistryClient.scope(BASE_REPOSITORY, "pull")),
+            "token for the mount includes pull of the base repository");
+    }
+
+    @Test
+    void resumesUploadAfterFailedChunk() throws IOException {
+        registry.failChunks(1);
+
+        pusher.push(layout, image(), List.of("1.0"), manifest, null);
+
+        assertTrue(registry.getUploadedDigests().contains(Digests.sha256(appLayer)));
+        assertArrayEquals(appLayer, registry.getBlob(REPOSITORY, Digests.sha256(appLayer)));
+        assertEquals(List.of(REPOSITORY + ":1.0"), registry.getManifestPuts());
+    }
+
+    @Test
+    void skipsTagsAlreadyAtDigest() throws IOException {
+        final byte[] content = Files.readAllBytes(layout.blobPath(manifest.digest()));
+        registry.addManifest(REPOSITORY, "latest", manifest.mediaType(), content);
+
+        pusher.retag(image(), new RegistryClient.Manifest(manifest.mediaType(), manifest.digest(), content),
+            List.of("latest", "stable")
+        );
+
+        assertEquals(List.of(REPOSITORY + ":stable"), registry.getManifestPuts());
+    }
+
+    @Test
+    void skipsPushWhenTagIsAlreadyAtDigest() throws IOException {
+        pusher.push(layout, image(), List.of("1.0"), manifest, BASE_REPOSITORY);
+        final List<String> uploaded = registry.getUploadedDigests();
+
+        pusher.push(layout, image(), List.of("1.0", "latest"), manifest, BASE_REPOSITORY);
+
+        assertEquals(uploaded, registry.getUploadedDigests());
+        assertEquals(List.of(REPOSITORY + ":1.0", REPOSITORY + ":latest"), registry.getManifestPuts());
+    }
+
+    @Test
+    void pushesPlatformManifestsOfIndex() throws IOException {
+        final byte[] armBaseLayer = new byte[64 * 1024];
+        new Random(1).nextBytes(armBaseLayer);
+        registry.addBlob(BASE_REPOSITORY, armBaseLayer);
+        final OciLayout.Descriptor armConfig = layout.writeJsonBlob(OciLayout.OCI_CONFIG, Map.of("architecture", "arm64"));
+        final OciLayout.Descriptor armManifest = layout.writeJsonBlob(RegistryClient.OCI_MANIFEST, Map.of(
+            "schemaVersion", 2,
+            "mediaType", RegistryClient.OCI_MANIFEST,
+            "config", armConfig.toMap(),
+            "layers", List.of(writeLayer(armBaseLayer).toMap(), writeLayer(appLayer).toMap())
+        ));
+
+        // same as an assembled multi-platform image, where the platforms share the application layers
+        final List<Map<String, Object>> platformManifests = new ArrayList<>();
+        for (final OciLayout.Descriptor platformManifest : List.of(manifest, armManifest)) {
+            final Map<String, Object> entry = platformManifest.toMap();
+            entry.put("platform", ImagePlatform.parse(platformManifest == manifest ? "linux/amd64" : "linux/arm64").toMap());
+            platformManifests.add(entry);
+        }
+        final OciLayout.Descriptor index = layout.writeJsonBlob(RegistryClient.OCI_INDEX, Map.of(
+            "schemaVersion", 2,
+            "mediaType", RegistryClient.OCI_INDEX,
+            "manifests", platformManifests
+        ));
+
+        pusher.push(layout, image(), List.of("1.0"), index, BASE_REPOSITORY);
+
+        assertEquals(1, Collections.frequency(registry.getUploadedDigests(), Digests.sha256(appLayer)),
+            "shared application layer is uploaded once");
+        assertEquals(List.of(Digests.sha256(baseLayer), Digests.sha256(armBaseLayer)), registry.getMountedDigests());
+        assertEquals(List.of(
+            REPOSITORY + ":" + manifest.digest(), REPOSITORY + ":" + armManifest.digest(), REPOSITORY + ":1.0"
+        ), registry.getManifestPuts());
+
+        final FakeRegistry.StoredManifest pushedIndex = registry.getManifest(REPOSITORY, "1.0");
+        assertEquals(RegistryClient.OCI_INDEX, pushedIndex.mediaType());
+        assertEquals(List.of(manifest.digest(), armManifest.digest()),
+            ((List<?>) new RegistryClient.Manifest(pushedIndex.mediaType(), index.digest(), pushedIndex.content())
+                .parse().get("manifests")).stream()
+                .map(entry -> AssembleImageTask.castMap(entry).get("digest"))
+                .toList()
+        );
+        for (final Map<String, Object> platformManifest : platformManifests) {
+            assertNotNull(registry.getManifest(REPOSITORY, (String) platformManifest.get("digest")),
+                "registry has the platform manifest the index references");
+        }
+    }
+
+    private ImageReference image() {
+        return new ImageReference(registry.getRegistry(), REPOSITORY, null, null);
+    }
+
+    private OciLayout.Descriptor writeLayer(byte[] content) throws IOException {
+        final String digest = Digests.sha256(content);
+        final Path blobPath = layout.blobPath(digest);
+        Files.createDirectories(blobPath.getParent());
+        Files.write(blobPath, content);
+        return new OciLayout.Descriptor(OciLayout.OCI_LAYER_GZIP, digest, content.length);
+    }
+}
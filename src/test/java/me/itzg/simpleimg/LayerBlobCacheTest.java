@@ -0,0 +1,131 @@
+package me.itzg.simpleimg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LayerBlobCacheTest {
+
+    /**
+     * Random content is incompressible, so each blob is a little larger than this
+     */
+    private static final int CONTENT_SIZE = 10 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void storesLayerOnMiss() throws IOException {
+        final LayerBlobCache cache = new LayerBlobCache(tempDir.resolve("cache"), 1024 * 1024);
+        final OciLayout layout = new OciLayout(tempDir.resolve("layout"));
+        final OciLayout.TarContent content = content(1);
+
+        final OciLayout.Layer layer = cache.getOrCreate(layout, content, Deflater.DEFAULT_COMPRESSION);
+
+        assertTrue(layout.hasBlob(layer.descriptor().digest()));
+        assertEquals(LayerBlobCache.diffId(content), layer.diffId());
+        assertTrue(Files.isRegularFile(blobFile(content)));
+        assertTrue(Files.isRegularFile(metadataFile(content)));
+    }
+
+    @Test
+    void reusesCachedBlobOnHit() throws IOException {
+        final LayerBlobCache cache = new LayerBlobCache(tempDir.resolve("cache"), 1024 * 1024);
+        final OciLayout.TarContent content = content(1);
+        final OciLayout.Layer stored = cache.getOrCreate(
+            new OciLayout(tempDir.resolve("first")), content, Deflater.DEFAULT_COMPRESSION);
+
+        final OciLayout layout = new OciLayout(tempDir.resolve("second"));
+        final OciLayout.Layer reused = cache.getOrCreate(layout, content, Deflater.DEFAULT_COMPRESSION);
+
+        assertEquals(stored, reused);
+        // linked from the cache rather than compressed again
+        assertTrue(Files.isSameFile(blobFile(content), layout.blobPath(reused.descriptor().digest())));
+    }
+
+    @Test
+    void cachesLevelsSeparately() throws IOException {
+        final LayerBlobCache cache = new LayerBlobCache(tempDir.resolve("cache"), 1024 * 1024);
+        final OciLayout layout = new OciLayout(tempDir.resolve("layout"));
+        final OciLayout.TarContent content = content(1);
+        cache.getOrCreate(layout, content, Deflater.DEFAULT_COMPRESSION);
+
+        cache.getOrCreate(layout, content, Deflater.BEST_SPEED);
+
+        assertTrue(Files.isRegularFile(tempDir.resolve("cache")
+            .resolve(Digests.hex(LayerBlobCache.diffId(content)) + "-level" + Deflater.BEST_SPEED + ".blob")));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException {
+        // room for two entries but not three
+        final LayerBlobCache cache = new LayerBlobCache(tempDir.resolve("cache"), 3 * CONTENT_SIZE);
+        final OciLayout layout = new OciLayout(tempDir.resolve("layout"));
+        final OciLayout.TarContent first = content(1);
+        final OciLayout.TarContent second = content(2);
+        cache.getOrCreate(layout, first, Deflater.DEFAULT_COMPRESSION);
+        cache.getOrCreate(layout, second, Deflater.DEFAULT_COMPRESSION);
+        final Instant hourAgo = Instant.now().minus(Duration.ofHours(1));
+        Files.setLastModifiedTime(metadataFile(first), FileTime.from(hourAgo));
+        Files.setLastModifiedTime(metadataFile(second), FileTime.from(hourAgo.plusSeconds(1)));
+
+        // a hit makes the first entry the most recently used
+        cache.getOrCreate(layout, first, Deflater.DEFAULT_COMPRESSION);
+        cache.getOrCreate(layout, content(3), Deflater.DEFAULT_COMPRESSION);
+
+        assertTrue(Files.isRegularFile(blobFile(first)));
+        assertFalse(Files.exists(blobFile(second)));
+        assertFalse(Files.exists(metadataFile(second)));
+        assertTrue(Files.isRegularFile(blobFile(content(3))));
+    }
+
+    @Test
+    void recompressesWhenEvictedWhilePlacing() throws IOException {
+        final LayerBlobCache cache = new LayerBlobCache(tempDir.resolve("cache"), 1024 * 1024);
+        final OciLayout.TarContent content = content(1);
+        final OciLayout.Layer stored = cache.getOrCreate(
+            new OciLayout(tempDir.resolve("first")), content, Deflater.DEFAULT_COMPRESSION);
+
+        // same as a concurrent build evicting the entry after it was looked up
+        final OciLayout layout = new OciLayout(tempDir.resolve("second")) {
+            @Override
+            void addBlob(String digest, Path source) throws IOException {
+                Files.delete(source);
+                super.addBlob(digest, source);
+            }
+        };
+        final OciLayout.Layer layer = cache.getOrCreate(layout, content, Deflater.DEFAULT_COMPRESSION);
+
+        assertEquals(stored, layer);
+        assertTrue(layout.hasBlob(layer.descriptor().digest()));
+        try (var files = Files.list(layout.blobPath(layer.descriptor().digest()).getParent())) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")), "no partial blob is left behind");
+        }
+        assertTrue(Files.isRegularFile(blobFile(content)), "entry is stored again");
+    }
+
+    private static OciLayout.TarContent content(int seed) {
+        final byte[] bytes = new byte[CONTENT_SIZE];
+        new Random(seed).nextBytes(bytes);
+        return tarWriter -> tarWriter.addFile("app/content-" + seed, bytes);
+    }
+
+    private Path blobFile(OciLayout.TarContent content) throws IOException {
+        return tempDir.resolve("cache").resolve(Digests.hex(LayerBlobCache.diffId(content)) + ".blob");
+    }
+
+    private Path metadataFile(OciLayout.TarContent content) throws IOException {
+        return tempDir.resolve("cache").resolve(Digests.hex(LayerBlobCache.diffId(content)) + ".properties");
+    }
+}
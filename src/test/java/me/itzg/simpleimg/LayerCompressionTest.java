@@ -0,0 +1,79 @@
+package me.itzg.simpleimg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LayerCompressionTest {
+
+    @Test
+    void defaultGzipKeepsPushAndLoad() {
+        final List<String> attributes = LayerCompression.exporterAttributes(LayerCompression.GZIP, null);
+
+        assertEquals(List.of(), attributes);
+        assertEquals(List.of("--push"), BuildImageTask.outputArgs(true, attributes));
+        assertEquals(List.of("--load"), BuildImageTask.outputArgs(false, attributes));
+    }
+
+    @Test
+    void gzipLevelIsExported() {
+        assertEquals(List.of("--output", "type=docker,compression=gzip,compression-level=9"),
+            BuildImageTask.outputArgs(false, LayerCompression.exporterAttributes(LayerCompression.GZIP, 9))
+        );
+    }
+
+    @Test
+    void zstdRecompressesWithOciMediaTypes() {
+        assertEquals(List.of("--output",
+                "type=image,push=true,compression=zstd,compression-level=19,force-compression=true,oci-mediatypes=true"),
+            BuildImageTask.outputArgs(true, LayerCompression.exporterAttributes(LayerCompression.ZSTD, 19))
+        );
+    }
+
+    @Test
+    void estargzRecompressesWithOciMediaTypes() {
+        assertEquals(List.of("--output",
+                "type=docker,compression=estargz,force-compression=true,oci-mediatypes=true"),
+            BuildImageTask.outputArgs(false, LayerCompression.exporterAttributes(LayerCompression.ESTARGZ, null))
+        );
+    }
+
+    @Test
+    void rejectsUnknownCompression() {
+        final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+            () -> LayerCompression.exporterAttributes("lz4", null)
+        );
+        assertEquals("Layer compression must be gzip, zstd, or estargz", exception.getMessage());
+    }
+
+    @Test
+    void rejectsLevelOutOfRange() {
+        assertEquals("Compression level of gzip must be from 0 to 9", assertThrows(IllegalArgumentException.class,
+            () -> LayerCompression.exporterAttributes(LayerCompression.GZIP, 10)
+        ).getMessage());
+        assertEquals("Compression level of zstd must be from 0 to 22", assertThrows(IllegalArgumentException.class,
+            () -> LayerCompression.exporterAttributes(LayerCompression.ZSTD, 23)
+        ).getMessage());
+    }
+
+    @Test
+    void assembledImagesUseGzipLevel() {
+        assertEquals(Deflater.DEFAULT_COMPRESSION, LayerCompression.gzipLevel(LayerCompression.GZIP, null));
+        assertEquals(Deflater.BEST_SPEED, LayerCompression.gzipLevel(LayerCompression.GZIP, Deflater.BEST_SPEED));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {LayerCompression.ZSTD, LayerCompression.ESTARGZ})
+    void assembledImagesRejectOtherCompressions(String compression) {
+        final IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+            () -> LayerCompression.gzipLevel(compression, null)
+        );
+        assertEquals("Layer compression " + compression
+            + " requires buildSimpleBootImage with buildx, since assembled images can only use gzip", exception.getMessage());
+    }
+}
@@ -0,0 +1,73 @@
+package me.itzg.simpleimg;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ParallelGzipOutputStreamTest {
+
+    /**
+     * Small enough for several blocks per test, but larger than the dictionary carried between them
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 3 * BLOCK_SIZE, 3 * BLOCK_SIZE + 12345})
+    void roundTripsAndIsReproducible(int length) throws IOException {
+        final byte[] input = input(length);
+
+        final byte[] sequential = compress(input, 1);
+        assertArrayEquals(input, decompress(sequential));
+        for (final int parallelism : new int[]{2, 4}) {
+            assertArrayEquals(sequential, compress(input, parallelism),
+                "output with parallelism " + parallelism + " matches sequential output");
+        }
+    }
+
+    /**
+     * Repeats text across block boundaries so the blocks depend on the dictionary of the previous
+     * one, with random bytes mixed in to keep it from compressing to almost nothing
+     */
+    private static byte[] input(int length) {
+        final byte[] text = "Started Application in 1.234 seconds (process running for 1.5)\n"
+            .getBytes(StandardCharsets.UTF_8);
+        final Random random = new Random(length);
+        final byte[] input = new byte[length];
+        for (int i = 0; i < length; i++) {
+            input[i] = i % 1000 < 100 ? (byte) random.nextInt() : text[i % text.length];
+        }
+        return input;
+    }
+
+    private static byte[] compress(byte[] input, int parallelism) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(
+                compressed, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, pool)) {
+                // odd-sized writes, so blocks are filled across several of them
+                for (int off = 0; off < input.length; off += 10_000) {
+                    out.write(input, off, Math.min(10_000, input.length - off));
+                }
+            }
+            return compressed.toByteArray();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+}
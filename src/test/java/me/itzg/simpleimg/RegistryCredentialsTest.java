@@ -0,0 +1,76 @@
+package me.itzg.simpleimg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RegistryCredentialsTest {
+
+    private static final String REGISTRY = "registry.example.com";
+
+    @TempDir
+    Path configDir;
+
+    @Test
+    void readsAuthOfRegistry() throws IOException {
+        final Path configFile = writeConfig("{\"auths\":{\"https://" + REGISTRY + "\":{\"auth\":\"" + auth("user:pass") + "\"}}}");
+
+        // credential helpers aren't configured, so they aren't run
+        final RegistryCredentials credentials = RegistryCredentials.lookup(configFile, REGISTRY, null);
+
+        assertEquals(new RegistryCredentials("user", "pass"), credentials);
+        assertFalse(credentials.isIdentityToken());
+    }
+
+    @Test
+    void readsIdentityTokenOverAuth() throws IOException {
+        // the Docker CLI stores an empty password alongside the identity token
+        final Path configFile = writeConfig("{\"auths\":{\"" + REGISTRY + "\":{\"auth\":\"" + auth("user:")
+            + "\",\"identitytoken\":\"refresh-token\"}}}");
+
+        final RegistryCredentials credentials = RegistryCredentials.lookup(configFile, REGISTRY, null);
+
+        assertTrue(credentials.isIdentityToken());
+        assertEquals("refresh-token", credentials.secret());
+    }
+
+    @Test
+    void anonymousWithoutConfig() throws IOException {
+        assertTrue(RegistryCredentials.lookup(configDir.resolve("config.json"), REGISTRY, null).isAnonymous());
+    }
+
+    @Test
+    void exchangesIdentityTokenForAccessToken() throws IOException {
+        try (FakeRegistry registry = new FakeRegistry()) {
+            registry.requireIdentityToken("refresh-token");
+            final byte[] content = "{}".getBytes(StandardCharsets.UTF_8);
+            registry.addManifest("itzg/app", "1.0", RegistryClient.OCI_MANIFEST, content);
+            final RegistryClient client = new RegistryClient(registry.getRegistry(),
+                RegistryCredentials.identityToken("refresh-token")
+            );
+
+            final RegistryClient.Manifest manifest = client.getManifest("itzg/app", "1.0");
+
+            assertEquals(Digests.sha256(content), manifest.digest());
+            assertEquals(List.of("refresh-token"), registry.getRefreshTokens());
+            assertEquals(List.of(RegistryClient.scope("itzg/app", "pull")), registry.getTokenScopes());
+        }
+    }
+
+    private Path writeConfig(String json) throws IOException {
+        return Files.writeString(configDir.resolve("config.json"), json);
+    }
+
+    private static String auth(String userAndPassword) {
+        return Base64.getEncoder().encodeToString(userAndPassword.getBytes(StandardCharsets.UTF_8));
+    }
+}